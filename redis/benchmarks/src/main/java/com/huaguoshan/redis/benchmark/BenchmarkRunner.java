@@ -0,0 +1,47 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 按不同线程数依次运行基准测试
+ * <p>
+ * 用法：先在 redis 目录执行 {@code mvn install -DskipTests}，再在 benchmarks 目录执行 {@code mvn package}，然后
+ * <pre>
+ * java [-Dthreads=1,8,64] [-Dredis.host=127.0.0.1 -Dredis.port=6379] -jar target/benchmarks.jar [基准测试名称正则]
+ * </pre>
+ * 每个线程数输出吞吐量（ops/us）及 SampleTime 模式的 p50/p99/p999 延迟，
+ * 结果同时保存为 target/jmh-result-&lt;线程数&gt;.json，便于对比前后两次的结果
+ *
+ * @author gaox
+ *
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "com.huaguoshan.redis.benchmark.*Benchmark";
+        String[] threads = System.getProperty("threads", "1,8,64").split(",");
+        new File("target").mkdirs();
+        for (String thread : threads) {
+            int count = Integer.parseInt(thread.trim());
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(count)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-result-" + count + ".json");
+            // 传递 redis 连接配置给 fork 出的测试进程
+            for (String property : new String[] { "redis.host", "redis.port", "redis.pool" }) {
+                if (System.getProperty(property) != null) {
+                    options.jvmArgsAppend("-D" + property + "=" + System.getProperty(property));
+                }
+            }
+            new Runner(options.build()).run();
+        }
+    }
+
+}
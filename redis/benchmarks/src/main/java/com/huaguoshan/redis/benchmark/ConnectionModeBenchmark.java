@@ -0,0 +1,116 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.huaguoshan.redis.limit.RateLimiter;
+import com.huaguoshan.redis.limit.RateLimiterConfig;
+import com.huaguoshan.redis.limit.RateLimiterType;
+import com.huaguoshan.redis.lock.ReentrantLock;
+
+/**
+ * jedis 连接池与 lettuce 共享连接对比
+ * <p>
+ * jedis 连接池大小与 application.yml 一致为 8（可用 {@code redis.pool} 修改），调用方多于连接数时排队等待连接；
+ * lettuce 所有线程复用一个连接，命令在连接上流水线发送。建议以 {@code -Dthreads=8,64,512} 运行：
+ * <pre>
+ * java -Dthreads=8,64,512 -jar target/benchmarks.jar ConnectionModeBenchmark
+ * </pre>
+ *
+ * @author gaox
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class ConnectionModeBenchmark {
+
+    private RateLimiter rateLimiter;
+
+    @Setup(Level.Trial)
+    public void setup(ClientState redis) {
+        RateLimiterConfig config = new RateLimiterConfig();
+        config.setName("benchmark connectionMode rateLimiter");
+        config.setType(RateLimiterType.FIXWINDOW);
+        config.setLimitForPeriod(100000000);
+        config.setLimitRefreshPeriod(Duration.ofSeconds(1));
+        rateLimiter = redis.getHgsRedis().getRateLimiter(config);
+    }
+
+    /**
+     * 一次限流脚本往返
+     */
+    @Benchmark
+    public boolean getPermission() {
+        return rateLimiter.getPermission();
+    }
+
+    /**
+     * 每个线程使用不同的锁，获取、释放各一次脚本往返
+     */
+    @Benchmark
+    public void tryLockUnlock(ThreadLock lock) {
+        if (lock.lock.tryLock()) {
+            lock.lock.unlock();
+        }
+    }
+
+    /**
+     * 按连接方式启动的 HuaGuoShanRedis
+     */
+    @State(Scope.Benchmark)
+    public static class ClientState extends RedisState {
+
+        @Param({ "jedis", "lettuce" })
+        private String client;
+
+        @Override
+        protected List<String> connectionProperties() {
+            List<String> properties = new ArrayList<>();
+            properties.add("spring.redis.client-type=" + client);
+            if (System.getProperty("redis.pool") != null) {
+                properties.add("spring.redis.jedis.pool.max-active=" + System.getProperty("redis.pool"));
+                properties.add("spring.redis.jedis.pool.max-idle=" + System.getProperty("redis.pool"));
+            }
+            return properties;
+        }
+
+    }
+
+    /**
+     * 线程独占的锁
+     */
+    @State(Scope.Thread)
+    public static class ThreadLock {
+
+        private final static AtomicInteger INDEX = new AtomicInteger();
+
+        private ReentrantLock lock;
+
+        @Setup(Level.Trial)
+        public void setup(ClientState redis) {
+            lock = redis.getHgsRedis().getReentrantLock("benchmark connectionMode lock " + INDEX.incrementAndGet());
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.huaguoshan.redis.lock.FairLock;
+import com.huaguoshan.redis.lock.ReentrantLock;
+import com.huaguoshan.redis.lock.TwoLevelLock;
+
+/**
+ * 分布式锁基准测试
+ * <ul>
+ * <li>tryLockUnlock：每个线程使用自己的锁，没有竞争，测量获取、释放各一次脚本往返的开销</li>
+ * <li>contendedLock、contendedFairLock、contendedTwoLevelLock：所有线程竞争同一把锁，测量锁交接的吞吐和等待延迟</li>
+ * </ul>
+ *
+ * @author gaox
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class LockBenchmark {
+
+    private ReentrantLock sharedLock;
+
+    private FairLock sharedFairLock;
+
+    private TwoLevelLock sharedTwoLevelLock;
+
+    @Setup(Level.Trial)
+    public void setup(RedisState redis) {
+        sharedLock = redis.getHgsRedis().getReentrantLock("benchmark ReentrantLock");
+        sharedFairLock = redis.getHgsRedis().getFairLock("benchmark FairLock");
+        sharedTwoLevelLock = redis.getHgsRedis().getTwoLevelLock("benchmark TwoLevelLock");
+    }
+
+    @Benchmark
+    public boolean tryLockUnlock(ThreadLock threadLock) {
+        if (threadLock.lock.tryLock()) {
+            threadLock.lock.unlock();
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public void contendedLock() {
+        sharedLock.lock();
+        sharedLock.unlock();
+    }
+
+    @Benchmark
+    public void contendedFairLock() {
+        sharedFairLock.lock();
+        sharedFairLock.unlock();
+    }
+
+    @Benchmark
+    public void contendedTwoLevelLock() {
+        sharedTwoLevelLock.lock();
+        sharedTwoLevelLock.unlock();
+    }
+
+    /**
+     * 每个线程独占的锁
+     */
+    @State(Scope.Thread)
+    public static class ThreadLock {
+
+        private ReentrantLock lock;
+
+        @Setup(Level.Trial)
+        public void setup(RedisState redis) {
+            lock = redis.getHgsRedis().getReentrantLock("benchmark ReentrantLock " + UUID.randomUUID());
+        }
+
+    }
+
+}
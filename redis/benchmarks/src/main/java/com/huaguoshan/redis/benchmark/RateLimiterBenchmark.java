@@ -0,0 +1,63 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.huaguoshan.redis.limit.RateLimiter;
+import com.huaguoshan.redis.limit.RateLimiterConfig;
+import com.huaguoshan.redis.limit.RateLimiterType;
+
+/**
+ * 频率限流器限流判断基准测试
+ * <p>
+ * 限流容量足够大，每次判断都通过，测量的是一次限流脚本往返（预取模式下为本地发放）的开销
+ *
+ * @author gaox
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    @Param({ "FIXWINDOW", "SLIDINGWINDOW", "SLIDINGWINDOWCOUNTER", "GCRA" })
+    private RateLimiterType type;
+
+    @Param({ "1" })
+    private int leaseSize;
+
+    private RateLimiter rateLimiter;
+
+    @Setup(Level.Trial)
+    public void setup(RedisState redis) {
+        RateLimiterConfig config = new RateLimiterConfig();
+        config.setName("benchmark rateLimiter " + type + " " + leaseSize);
+        config.setType(type);
+        config.setLimitForPeriod(100000000);
+        config.setLimitRefreshPeriod(Duration.ofSeconds(1));
+        config.setLeaseSize(leaseSize);
+        rateLimiter = redis.getHgsRedis().getRateLimiter(config);
+    }
+
+    @Benchmark
+    public boolean getPermission() {
+        return rateLimiter.getPermission();
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import com.huaguoshan.redis.HuaGuoShanRedis;
+import com.huaguoshan.redis.SpringDataRedisApplication;
+
+import redis.embedded.RedisServer;
+
+/**
+ * 基准测试共享的 redis 服务端及 HuaGuoShanRedis
+ * <p>
+ * 指定系统属性 {@code redis.host} 时连接已启动的 redis，否则在 {@code redis.port}（默认 6390）启动内嵌 redis，
+ * 每轮测试结束后停止；连接池大小由 {@code redis.pool} 指定，默认 64，不小于测试线程数才能测出 redis 本身的吞吐
+ *
+ * @author gaox
+ *
+ */
+@State(Scope.Benchmark)
+public class RedisState {
+
+    // 内嵌 redis，连接外部 redis 时为 null
+    private RedisServer redisServer;
+
+    // spring 容器
+    private ConfigurableApplicationContext context;
+
+    private HuaGuoShanRedis hgsRedis;
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String host = System.getProperty("redis.host");
+        int port = Integer.getInteger("redis.port", 6390);
+        if (host == null) {
+            host = "127.0.0.1";
+            redisServer = RedisServer.newRedisServer().port(port).setting("bind 127.0.0.1").setting("save \"\"")
+                    .setting("appendonly no").build();
+            redisServer.start();
+        }
+        List<String> properties = new ArrayList<>();
+        properties.add("spring.redis.host=" + host);
+        properties.add("spring.redis.port=" + port);
+        properties.add("logging.level.root=WARN");
+        properties.addAll(connectionProperties());
+        context = new SpringApplicationBuilder(SpringDataRedisApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(properties.toArray(new String[0]))
+                .run();
+        hgsRedis = context.getBean(HuaGuoShanRedis.class);
+        redisTemplate = context.getBean("redisTemplate", RedisTemplate.class);
+    }
+
+    /**
+     * 连接配置，默认使用 jedis 连接池，大小由 {@code redis.pool} 指定
+     * @return spring 配置项
+     */
+    protected List<String> connectionProperties() {
+        int pool = Integer.getInteger("redis.pool", 64);
+        List<String> properties = new ArrayList<>();
+        properties.add("spring.redis.jedis.pool.max-active=" + pool);
+        properties.add("spring.redis.jedis.pool.max-idle=" + pool);
+        return properties;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    public HuaGuoShanRedis getHgsRedis() {
+        return hgsRedis;
+    }
+
+    public RedisTemplate<String, Object> getRedisTemplate() {
+        return redisTemplate;
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 同一段 lua 脚本以 EVAL 与 EVALSHA 执行的对比
+ * <p>
+ * eval 每次发送完整脚本，服务端每次计算 SHA1 并查找脚本缓存；evalSha 复用 {@link DefaultRedisScript} 常量，
+ * 只发送 40 字节的 SHA1，脚本未缓存（NOSCRIPT）时才回退为 EVAL；newScript 每次新建脚本对象，
+ * 客户端每次重新计算 SHA1。脚本为固定窗口计数，与限流器脚本长度相近
+ *
+ * @author gaox
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class ScriptBenchmark {
+
+    // 固定窗口计数 lua 脚本
+    // KEYS[1] 计数键，ARGV[1] 窗口内上限，ARGV[2] 窗口长度（毫秒）
+    // 未超过上限时计数加 1 返回 1，否则返回 0
+    private final static String FIXED_WINDOW = "local current = tonumber(redis.call('get', KEYS[1]) or '0'); "
+            + "if (current >= tonumber(ARGV[1])) then "
+            + "    return 0; "
+            + "end; "
+            + "current = redis.call('incr', KEYS[1]); "
+            + "if (current == 1) then "
+            + "    redis.call('pexpire', KEYS[1], ARGV[2]); "
+            + "end; "
+            + "return 1;";
+
+    private final static RedisScript<Long> FIXED_WINDOW_SCRIPT = new DefaultRedisScript<>(FIXED_WINDOW, Long.class);
+
+    // 参数经 redisTemplate 的值序列化后传给脚本，数字序列化后仍是数字
+    private final static long LIMIT = 100000000;
+
+    private final static long PERIOD = 1000;
+
+    private final static List<String> KEYS = Collections.singletonList("benchmark script");
+
+    private final static byte[] SCRIPT_BYTES = FIXED_WINDOW.getBytes(StandardCharsets.UTF_8);
+
+    private final static byte[][] KEYS_AND_ARGS = { KEYS.get(0).getBytes(StandardCharsets.UTF_8),
+            String.valueOf(LIMIT).getBytes(StandardCharsets.UTF_8), String.valueOf(PERIOD).getBytes(StandardCharsets.UTF_8) };
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Setup(Level.Trial)
+    public void setup(RedisState redis) {
+        redisTemplate = redis.getRedisTemplate();
+    }
+
+    /**
+     * EVAL，每次发送完整脚本
+     */
+    @Benchmark
+    public Long eval() {
+        return redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(SCRIPT_BYTES, ReturnType.INTEGER, 1, KEYS_AND_ARGS));
+    }
+
+    /**
+     * EVALSHA，复用脚本常量
+     */
+    @Benchmark
+    public Long evalSha() {
+        return redisTemplate.execute(FIXED_WINDOW_SCRIPT, KEYS, LIMIT, PERIOD);
+    }
+
+    /**
+     * EVALSHA，每次新建脚本对象
+     */
+    @Benchmark
+    public Long newScript() {
+        return redisTemplate.execute(new DefaultRedisScript<>(FIXED_WINDOW, Long.class), KEYS, LIMIT, PERIOD);
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.huaguoshan.redis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import com.huaguoshan.redis.config.RedisConfig;
+import com.huaguoshan.redis.serializer.CompactRedisSerializer;
+import com.huaguoshan.redis.serializer.RawRedisSerializer;
+
+/**
+ * 序列化方式对比：带类名前缀的 JSON、紧凑二进制、脚本参数使用的原始字符串
+ * <p>
+ * 不需要 redis，每组参数开始时打印编码长度。原始字符串只用于脚本参数，不支持对象，对象编码在 {@link ObjectPayload} 中只对比前两种：
+ * <pre>
+ * java -Dthreads=1 -jar target/benchmarks.jar SerializerBenchmark
+ * </pre>
+ *
+ * @author gaox
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({ "jackson", "compact", "raw" })
+    private String serializer;
+
+    @Param({ "long", "clientId" })
+    private String payload;
+
+    private RedisSerializer<Object> redisSerializer;
+
+    private Object value;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        redisSerializer = serializer(serializer);
+        value = payload(payload);
+        bytes = redisSerializer.serialize(value);
+        System.out.println(serializer + " " + payload + " : " + bytes.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return redisSerializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return redisSerializer.deserialize(bytes);
+    }
+
+    private static RedisSerializer<Object> serializer(String name) {
+        if ("jackson".equals(name)) {
+            return RedisConfig.jackson2JsonRedisSerializer();
+        } else if ("compact".equals(name)) {
+            return new CompactRedisSerializer();
+        } else {
+            return RawRedisSerializer.INSTANCE;
+        }
+    }
+
+    private static Object payload(String name) {
+        if ("long".equals(name)) {
+            return System.currentTimeMillis();
+        } else if ("clientId".equals(name)) {
+            return "5f0c3a4e-8d2b-4c61-9a7e-3b1d2c4e5f60:1";
+        } else {
+            return new Sample("5f0c3a4e-8d2b-4c61-9a7e-3b1d2c4e5f60", 30000L, 20, 0.75D);
+        }
+    }
+
+    /**
+     * 对象编码，原始字符串不支持对象
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    public static class ObjectPayload {
+
+        @Param({ "jackson", "compact" })
+        private String serializer;
+
+        private RedisSerializer<Object> redisSerializer;
+
+        private Object value;
+
+        private byte[] bytes;
+
+        @Setup
+        public void setup() {
+            redisSerializer = serializer(serializer);
+            value = payload("object");
+            bytes = redisSerializer.serialize(value);
+            System.out.println(serializer + " object : " + bytes.length + " bytes");
+        }
+
+        @Benchmark
+        public byte[] encode() {
+            return redisSerializer.serialize(value);
+        }
+
+        @Benchmark
+        public Object decode() {
+            return redisSerializer.deserialize(bytes);
+        }
+
+    }
+
+    /**
+     * 对象编码测试数据
+     */
+    public static class Sample {
+
+        private String name;
+
+        private long timeout;
+
+        private int limit;
+
+        private double ratio;
+
+        public Sample() {
+        }
+
+        public Sample(String name, long timeout, int limit, double ratio) {
+            this.name = name;
+            this.timeout = timeout;
+            this.limit = limit;
+            this.ratio = ratio;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.huaguoshan.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * redis 集群键名工具
+ * <p>
+ * 集群模式下一个 lua 脚本的所有键必须在同一个槽。键名中第一对非空的 {@code {...}}（hash tag）决定槽，
+ * 没有 hash tag 时整个键名决定槽。由名称派生的键（队列、频道等）以 {@link #derive(String, String)} 生成，
+ * 保留完整的名称，hash tag 取名称的 hash tag 或整个名称，与名称本身在同一个槽；
+ * 使用相同 hash tag 的不同名称派生出不同的键，单机模式下只是键名不同
+ *
+ * @author gaox
+ *
+ */
+public final class ClusterKeys {
+
+    // lettuce 是否在类路径中，排除 lettuce 时不加载 LettuceConnectionFactory
+    private final static boolean LETTUCE_PRESENT = ClassUtils.isPresent("io.lettuce.core.RedisClient", ClusterKeys.class.getClassLoader());
+
+    private ClusterKeys() {
+    }
+
+    /**
+     * 获取名称决定槽的部分，以 hash tag 形式返回
+     * @param name 名称
+     * @return 名称中已有的 hash tag，没有时返回 {@code {name}}
+     */
+    public static String hashTag(String name) {
+        if (hasHashTag(name)) {
+            int start = name.indexOf('{');
+            return name.substring(start, name.indexOf('}', start + 1) + 1);
+        }
+        return "{" + name + "}";
+    }
+
+    /**
+     * 名称是否包含非空的 hash tag
+     * @param name 名称
+     * @return 是否包含 hash tag
+     */
+    public static boolean hasHashTag(String name) {
+        Assert.notNull(name, "name 不能为空");
+        int start = name.indexOf('{');
+        return start >= 0 && name.indexOf('}', start + 1) > start + 1;
+    }
+
+    /**
+     * 由名称派生与名称在同一个槽的键名
+     * @param prefix 键名前缀，不能包含 {@code {}
+     * @param name 名称
+     * @return 名称已有 hash tag 时返回 {@code prefix + name}，否则返回 {@code prefix + "{" + name + "}"}
+     */
+    public static String derive(String prefix, String name) {
+        return hasHashTag(name) ? prefix + name : prefix + "{" + name + "}";
+    }
+
+    /**
+     * 分片键名，各分片使用不同的 hash tag，分布到不同的槽
+     * @param name 名称，不能包含 hash tag
+     * @param shard 分片序号
+     * @return 分片键名
+     */
+    public static String shard(String name, int shard) {
+        return "{" + name + ":" + shard + "}";
+    }
+
+    /**
+     * 计算键名所在的槽
+     * @param key 键名
+     * @return 槽，0 ~ 16383
+     */
+    public static int slot(String key) {
+        return ClusterSlotHashUtil.calculateSlot(key);
+    }
+
+    /**
+     * 按键名所在的槽分组，组间和组内保持原有顺序
+     * @param items 待分组的元素
+     * @param keyMapper 元素对应的键名
+     * @return 同一个槽的元素为一组
+     */
+    public static <T> Collection<List<T>> groupBySlot(Collection<T> items, Function<T, String> keyMapper) {
+        Map<Integer, List<T>> groups = new LinkedHashMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(slot(keyMapper.apply(item)), slot -> new ArrayList<>()).add(item);
+        }
+        return groups.values();
+    }
+
+    /**
+     * 是否连接 redis 集群，集群模式下跨槽的批量脚本需要按槽拆分
+     * @param redisTemplate redisTemplate
+     * @return 是否集群模式
+     */
+    public static boolean isCluster(RedisTemplate<?, ?> redisTemplate) {
+        RedisConnectionFactory factory = redisTemplate.getConnectionFactory();
+        if (factory instanceof JedisConnectionFactory) {
+            return ((JedisConnectionFactory) factory).isRedisClusterAware();
+        }
+        return LETTUCE_PRESENT && factory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) factory).isClusterAware();
+    }
+
+}
@@ -1,12 +1,43 @@
 package com.huaguoshan.redis;
 
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
 
+import com.huaguoshan.redis.config.HuaGuoShanRedisProperties;
+import com.huaguoshan.redis.limit.AdaptiveLimiter;
+import com.huaguoshan.redis.limit.AdaptiveLimiterConfig;
 import com.huaguoshan.redis.limit.RateLimiter;
 import com.huaguoshan.redis.limit.RateLimiterConfig;
+import com.huaguoshan.redis.lock.CountDownLatch;
+import com.huaguoshan.redis.lock.ExpirableSemaphore;
+import com.huaguoshan.redis.lock.FairLock;
+import com.huaguoshan.redis.lock.LockContext;
+import com.huaguoshan.redis.lock.LockPubSub;
+import com.huaguoshan.redis.lock.LockWatchdog;
+import com.huaguoshan.redis.lock.MultiLock;
 import com.huaguoshan.redis.lock.ReentrantLock;
+import com.huaguoshan.redis.lock.ReentrantReadWriteLock;
+import com.huaguoshan.redis.lock.TwoLevelLock;
+import com.huaguoshan.redis.serializer.RawRedisSerializer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 
 @Component
 public class HuaGuoShanRedis {
@@ -14,13 +45,201 @@ public class HuaGuoShanRedis {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private HuaGuoShanRedisProperties properties;
+
+    @Autowired
+    private ObjectProvider<MeterRegistry> meterRegistryProvider;
+
+    // 监控指标注册表，未启用或没有 Micrometer 注册表时为空操作的组合注册表
+    private MeterRegistry meterRegistry;
+
+    // 执行 lua 脚本的 redisTemplate，与 redisTemplate 共享连接，脚本参数不经过 JSON 序列化
+    private RedisTemplate<String, Object> scriptTemplate;
+
+    // 锁释放消息订阅，所有锁共享
+    private LockPubSub lockPubSub;
+
+    // 锁看门狗，所有锁共享
+    private LockWatchdog lockWatchdog;
+
+    // 异步 API 执行 redis 命令的线程池
+    private ExecutorService asyncExecutor;
+
+    // redis 熔断器，未启用时为 null
+    private RedisCircuitBreaker circuitBreaker;
+
+    // 分布式锁共享组件
+    private LockContext lockContext;
+
+    // 可重入锁实例注册表
+    private InstanceRegistry<String, ReentrantLock> reentrantLocks;
+
+    // 公平锁实例注册表
+    private InstanceRegistry<String, FairLock> fairLocks;
+
+    // 读写锁实例注册表
+    private InstanceRegistry<String, ReentrantReadWriteLock> readWriteLocks;
+
+    // 两级锁实例注册表
+    private InstanceRegistry<String, TwoLevelLock> twoLevelLocks;
+
+    // 频率限流器实例注册表
+    private InstanceRegistry<String, RateLimiter> rateLimiters;
+
+    // 自适应并发限流器实例注册表
+    private InstanceRegistry<String, AdaptiveLimiter> adaptiveLimiters;
+
+    @PostConstruct
+    public void init() {
+        meterRegistry = properties.getMetrics().isEnabled() ? meterRegistryProvider.getIfAvailable(CompositeMeterRegistry::new) : new CompositeMeterRegistry();
+        scriptTemplate = new RedisTemplate<>();
+        scriptTemplate.setConnectionFactory(redisTemplate.getRequiredConnectionFactory());
+        scriptTemplate.setKeySerializer(RedisSerializer.string());
+        scriptTemplate.setValueSerializer(RawRedisSerializer.INSTANCE);
+        scriptTemplate.afterPropertiesSet();
+        lockPubSub = new LockPubSub(listenerContainer, ReentrantLock.CHANNEL_PREFIX);
+        HuaGuoShanRedisProperties.Lock lock = properties.getLock();
+        lockWatchdog = new LockWatchdog(scriptTemplate, lock.getWatchdogTimeout().toMillis(), lock.getWatchdogBatchSize());
+        AtomicInteger threadIndex = new AtomicInteger();
+        asyncExecutor = Executors.newFixedThreadPool(properties.getAsyncThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "huaguoshan-redis-async-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        HuaGuoShanRedisProperties.CircuitBreaker breaker = properties.getCircuitBreaker();
+        if (breaker.isEnabled()) {
+            circuitBreaker = new RedisCircuitBreaker(breaker.getFailureThreshold(), breaker.getSlowCallDuration(), breaker.getOpenDuration(),
+                    breaker.getInstances(), meterRegistry);
+        }
+        lockContext = new LockContext(scriptTemplate, lockPubSub, lockWatchdog, asyncExecutor, UUID.randomUUID().toString(), meterRegistry, circuitBreaker);
+        HuaGuoShanRedisProperties.Registry registry = properties.getRegistry();
+        reentrantLocks = new InstanceRegistry<>(registry.getMaxSize(), registry.getIdleTimeout());
+        fairLocks = new InstanceRegistry<>(registry.getMaxSize(), registry.getIdleTimeout());
+        readWriteLocks = new InstanceRegistry<>(registry.getMaxSize(), registry.getIdleTimeout());
+        twoLevelLocks = new InstanceRegistry<>(registry.getMaxSize(), registry.getIdleTimeout());
+        rateLimiters = new InstanceRegistry<>(registry.getMaxSize(), registry.getIdleTimeout());
+        adaptiveLimiters = new InstanceRegistry<>(registry.getMaxSize(), registry.getIdleTimeout());
+        bindRegistry("reentrantLock", reentrantLocks);
+        bindRegistry("fairLock", fairLocks);
+        bindRegistry("readWriteLock", readWriteLocks);
+        bindRegistry("twoLevelLock", twoLevelLocks);
+        bindRegistry("rateLimiter", rateLimiters);
+        bindRegistry("adaptiveLimiter", adaptiveLimiters);
+    }
+
+    /**
+     * 注册实例注册表的实例数量、命中、创建及移出次数指标
+     * @param type 实例类型
+     * @param registry 实例注册表
+     */
+    private void bindRegistry(String type, InstanceRegistry<?, ?> registry) {
+        Gauge.builder("huaguoshan.registry.size", registry, InstanceRegistry::size).description("已注册的实例数量")
+                .tag("type", type).register(meterRegistry);
+        FunctionCounter.builder("huaguoshan.registry.requests", registry, InstanceRegistry::getHitCount).description("获取实例次数")
+                .tag("type", type).tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("huaguoshan.registry.requests", registry, InstanceRegistry::getMissCount).description("获取实例次数")
+                .tag("type", type).tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("huaguoshan.registry.evictions", registry, InstanceRegistry::getEvictionCount).description("移出实例次数")
+                .tag("type", type).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        reentrantLocks.clear();
+        fairLocks.clear();
+        readWriteLocks.clear();
+        twoLevelLocks.clear();
+        rateLimiters.clear();
+        adaptiveLimiters.clear();
+        lockWatchdog.shutdown();
+        lockPubSub.shutdown();
+        asyncExecutor.shutdown();
+    }
+
     /**
      * 获取可重入分布式锁
      * @param lockName
      * @return
      */
     public ReentrantLock getReentrantLock(String lockName) {
-        return ReentrantLock.instance(lockName, redisTemplate);
+        ReentrantLock lock = reentrantLocks.get(lockName);
+        if (lock == null) {
+            lock = reentrantLocks.computeIfAbsent(lockName, name -> ReentrantLock.instance(name, lockContext));
+        }
+        return lock;
+    }
+
+    /**
+     * 获取可重入公平分布式锁，等待者按到达顺序获取锁
+     * @param lockName
+     * @return
+     */
+    public FairLock getFairLock(String lockName) {
+        FairLock lock = fairLocks.get(lockName);
+        if (lock == null) {
+            lock = fairLocks.computeIfAbsent(lockName, name -> FairLock.instance(name, lockContext));
+        }
+        return lock;
+    }
+
+    /**
+     * 获取可重入分布式读写锁，读锁共享，写锁独占，写锁优先
+     * @param lockName
+     * @return
+     */
+    public ReentrantReadWriteLock getReadWriteLock(String lockName) {
+        ReentrantReadWriteLock lock = readWriteLocks.get(lockName);
+        if (lock == null) {
+            lock = readWriteLocks.computeIfAbsent(lockName, name -> ReentrantReadWriteLock.instance(name, lockContext));
+        }
+        return lock;
+    }
+
+    /**
+     * 获取两级分布式锁，同一 JVM 中的线程先在本地排队，只有本地获胜者去 redis 竞争，
+     * 本地有等待者时 redis 锁直接交给下一个等待者
+     * @param lockName
+     * @return
+     */
+    public TwoLevelLock getTwoLevelLock(String lockName) {
+        TwoLevelLock lock = twoLevelLocks.get(lockName);
+        if (lock == null) {
+            lock = twoLevelLocks.computeIfAbsent(lockName, name -> TwoLevelLock.instance(name, lockContext, properties.getLock().getMaxHandoffs()));
+        }
+        return lock;
+    }
+
+    /**
+     * 获取联锁，一次脚本调用获取或释放所有锁，全部获取成功或全部不获取，与同名的可重入锁互斥
+     * @param lockNames 锁名称，集群模式下需要使用相同的 hash tag
+     * @return
+     */
+    public MultiLock getMultiLock(String... lockNames) {
+        Assert.notNull(lockNames, "lockNames 不能为空");
+        return MultiLock.instance(Arrays.asList(lockNames), lockContext);
+    }
+
+    /**
+     * 获取许可会过期的分布式信号量，限制所有实例的总并发数
+     * @param name
+     * @param permits 许可总数
+     * @return
+     */
+    public ExpirableSemaphore getSemaphore(String name, int permits) {
+        return ExpirableSemaphore.instance(name, permits, lockContext);
+    }
+
+    /**
+     * 获取分布式倒计数门闩
+     * @param name
+     * @return
+     */
+    public CountDownLatch getCountDownLatch(String name) {
+        return CountDownLatch.instance(name, lockContext);
     }
 
     /**
@@ -29,7 +248,78 @@ public class HuaGuoShanRedis {
      * @return
      */
     public RateLimiter getRateLimiter(RateLimiterConfig config) {
-        return RateLimiter.instance(config, redisTemplate);
+        Assert.notNull(config, "config 不能为空");
+        RateLimiter rateLimiter = rateLimiters.get(config.getName());
+        if (rateLimiter == null || !rateLimiter.getConfig().equals(config)) {
+            // 同名限流器配置信息变化时替换为新的实例
+            rateLimiter = rateLimiters.compute(config.getName(),
+                    (name, old) -> old != null && old.getConfig().equals(config) ? old : RateLimiter.instance(config.copy(), scriptTemplate, asyncExecutor, meterRegistry, circuitBreaker));
+        }
+        return rateLimiter;
+    }
+
+    /**
+     * 获取自适应并发限流器实例，按往返延迟自动调整并发限制
+     * @param config
+     * @return
+     */
+    public AdaptiveLimiter getAdaptiveLimiter(AdaptiveLimiterConfig config) {
+        Assert.notNull(config, "config 不能为空");
+        AdaptiveLimiter limiter = adaptiveLimiters.get(config.getName());
+        if (limiter == null || !limiter.getConfig().equals(config)) {
+            // 同名限流器配置信息变化时替换为新的实例
+            limiter = adaptiveLimiters.compute(config.getName(), (name, old) -> old != null && old.getConfig().equals(config) ? old
+                    : AdaptiveLimiter.instance(config.copy(), scriptTemplate, asyncExecutor, lockContext.getInstanceId(), meterRegistry, circuitBreaker));
+        }
+        return limiter;
+    }
+
+    /**
+     * 可重入锁实例注册表
+     * @return
+     */
+    public InstanceRegistry<String, ReentrantLock> getReentrantLocks() {
+        return reentrantLocks;
+    }
+
+    /**
+     * 公平锁实例注册表
+     * @return
+     */
+    public InstanceRegistry<String, FairLock> getFairLocks() {
+        return fairLocks;
+    }
+
+    /**
+     * 读写锁实例注册表
+     * @return
+     */
+    public InstanceRegistry<String, ReentrantReadWriteLock> getReadWriteLocks() {
+        return readWriteLocks;
+    }
+
+    /**
+     * 两级锁实例注册表
+     * @return
+     */
+    public InstanceRegistry<String, TwoLevelLock> getTwoLevelLocks() {
+        return twoLevelLocks;
+    }
+
+    /**
+     * 频率限流器实例注册表
+     * @return
+     */
+    public InstanceRegistry<String, RateLimiter> getRateLimiters() {
+        return rateLimiters;
+    }
+
+    /**
+     * 自适应并发限流器实例注册表
+     * @return
+     */
+    public InstanceRegistry<String, AdaptiveLimiter> getAdaptiveLimiters() {
+        return adaptiveLimiters;
     }
 
 }
@@ -0,0 +1,219 @@
+package com.huaguoshan.redis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.springframework.util.Assert;
+
+/**
+ * 锁、限流器等实例的本地注册表，同名实例在注册表中只保留一个，作为按名称共享的本地状态和统计信息的挂载点
+ * <p>
+ * 命中时只更新最后访问时间，不创建对象；创建实例时顺带清理：
+ * 超过空闲时间未被访问的实例会被移出，实例数量超过上限时按最后访问时间移出最久未访问的 1/10。
+ * 被移出的实例仍可继续使用，再次获取时会创建新的实例，实例中的本地状态（例如预取的许可）随之丢弃
+ * 
+ * @author gaox
+ *
+ * @param <K> 实例名称类型
+ * @param <V> 实例类型
+ */
+public class InstanceRegistry<K, V> {
+
+    // 实例名称 -> 注册信息
+    private ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    // 实例数量上限
+    private int maxSize;
+
+    // 空闲时间，纳秒
+    private long idleTimeout;
+
+    // 上次清理时间，纳秒
+    private AtomicLong lastCleanup = new AtomicLong(System.nanoTime());
+
+    // 命中次数
+    private LongAdder hitCount = new LongAdder();
+
+    // 未命中（创建实例）次数
+    private LongAdder missCount = new LongAdder();
+
+    // 移出次数
+    private LongAdder evictionCount = new LongAdder();
+
+    /**
+     * 创建实例注册表
+     * @param maxSize 实例数量上限
+     * @param idleTimeout 空闲时间，超过空闲时间未被访问的实例会被移出
+     */
+    public InstanceRegistry(int maxSize, Duration idleTimeout) {
+        Assert.isTrue(maxSize > 0, "maxSize 必须大于 0");
+        Assert.isTrue(idleTimeout != null && !idleTimeout.isNegative() && !idleTimeout.isZero(), "idleTimeout 必须大于 0");
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout.toNanos();
+    }
+
+    /**
+     * 获取已注册的实例
+     * @param key 实例名称
+     * @return 已注册的实例，未注册返回 null
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = System.nanoTime();
+        hitCount.increment();
+        return entry.value;
+    }
+
+    /**
+     * 获取实例，未注册时创建并注册
+     * <p>
+     * 热点路径上应先调用 {@link #get(Object)}，未命中时再调用本方法，避免每次调用都创建 {@code factory}
+     * @param key 实例名称
+     * @param factory 创建实例
+     * @return 实例
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        missCount.increment();
+        Entry<V> entry = entries.computeIfAbsent(key, name -> new Entry<>(factory.apply(name)));
+        entry.lastAccess = System.nanoTime();
+        cleanup();
+        return entry.value;
+    }
+
+    /**
+     * 按已注册的实例重新计算实例，返回的实例与已注册的实例不同时替换注册
+     * @param key 实例名称
+     * @param remapping 参数为实例名称和已注册的实例（未注册为 null），返回要注册的实例
+     * @return 注册后的实例
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        Entry<V> entry = entries.compute(key, (name, old) -> {
+            V value = remapping.apply(name, old == null ? null : old.value);
+            if (old != null && old.value == value) {
+                return old;
+            }
+            missCount.increment();
+            return new Entry<>(value);
+        });
+        entry.lastAccess = System.nanoTime();
+        cleanup();
+        return entry.value;
+    }
+
+    /**
+     * 已注册的实例
+     * @return 已注册实例的只读视图
+     */
+    public Collection<V> values() {
+        List<V> values = new ArrayList<>(entries.size());
+        for (Entry<V> entry : entries.values()) {
+            values.add(entry.value);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * 已注册的实例数量
+     * @return 实例数量
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 移出所有实例
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 清理空闲实例，距上次清理不足一半空闲时间且未超过数量上限时跳过，同一时间只有一个线程清理
+     */
+    private void cleanup() {
+        long now = System.nanoTime();
+        long last = lastCleanup.get();
+        if (entries.size() <= maxSize && now - last < idleTimeout / 2) {
+            return;
+        }
+        if (!lastCleanup.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (now - entry.getValue().lastAccess > idleTimeout && entries.remove(entry.getKey(), entry.getValue())) {
+                evictionCount.increment();
+            }
+        }
+        int surplus = entries.size() - maxSize;
+        if (surplus <= 0) {
+            return;
+        }
+        // 最后访问时间会被并发修改，直接按访问时间排序可能违反比较器约定，先取快照再排序，移出不晚于第 evict 个访问时间的实例
+        List<Long> accesses = new ArrayList<>(entries.size());
+        for (Entry<V> entry : entries.values()) {
+            accesses.add(entry.lastAccess);
+        }
+        Collections.sort(accesses);
+        int evict = Math.min(accesses.size(), surplus + maxSize / 10);
+        if (evict <= 0) {
+            return;
+        }
+        long threshold = accesses.get(evict - 1);
+        for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+            if (evict <= 0) {
+                break;
+            }
+            if (entry.getValue().lastAccess <= threshold && entries.remove(entry.getKey(), entry.getValue())) {
+                evictionCount.increment();
+                evict--;
+            }
+        }
+    }
+
+    /**
+     * 注册信息
+     */
+    private static class Entry<V> {
+
+        // 实例
+        private final V value;
+
+        // 最后访问时间，纳秒
+        private volatile long lastAccess;
+
+        private Entry(V value) {
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.huaguoshan.redis;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * redis 熔断器，redis 变慢或不可用时让锁、限流器快速失败，不再逐个等待超时
+ * <p>
+ * 连续 {@code failureThreshold} 次调用异常或耗时超过 {@code slowCallDuration} 后打开熔断，
+ * 打开期间不访问 redis，限流器改用本地限流器按全局限流容量的 1/{@code instances} 限流，锁直接获取失败；
+ * 打开 {@code openDuration} 后进入半开状态，只放行一次探测调用，成功则关闭熔断，失败则重新打开。
+ * <p>
+ * 状态以 huaguoshan.redis.circuitbreaker.state 指标暴露：0 关闭，1 打开，2 半开
+ *
+ * @author gaox
+ *
+ */
+public class RedisCircuitBreaker {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    // 连续失败多少次打开熔断
+    private int failureThreshold;
+
+    // 调用耗时超过该时间视为失败，纳秒
+    private long slowCallDuration;
+
+    // 熔断打开到进入半开的时间，纳秒
+    private long openDuration;
+
+    // 共享 redis 的实例数量，熔断期间每个实例分得全局限流容量的 1/instances
+    private int instances;
+
+    // 熔断状态
+    private AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    // 连续失败次数
+    private AtomicInteger failures = new AtomicInteger();
+
+    // 最近一次打开或放行探测调用的时间，纳秒
+    private AtomicLong transitionTime = new AtomicLong();
+
+    // 熔断期间拒绝访问 redis 的次数
+    private LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * 创建熔断器，并注册熔断状态指标
+     * @param failureThreshold 连续失败多少次打开熔断
+     * @param slowCallDuration 调用耗时超过该时间视为失败
+     * @param openDuration 熔断打开到进入半开的时间
+     * @param instances 共享 redis 的实例数量
+     * @param meterRegistry 监控指标注册表
+     */
+    public RedisCircuitBreaker(int failureThreshold, Duration slowCallDuration, Duration openDuration, int instances, MeterRegistry meterRegistry) {
+        Assert.isTrue(failureThreshold > 0, "failureThreshold 必须大于 0");
+        Assert.notNull(slowCallDuration, "slowCallDuration 不能为空");
+        Assert.notNull(openDuration, "openDuration 不能为空");
+        Assert.isTrue(instances > 0, "instances 必须大于 0");
+        Assert.notNull(meterRegistry, "meterRegistry 不能为空");
+        this.failureThreshold = failureThreshold;
+        this.slowCallDuration = slowCallDuration.toNanos();
+        this.openDuration = openDuration.toNanos();
+        this.instances = instances;
+        Gauge.builder("huaguoshan.redis.circuitbreaker.state", this, breaker -> breaker.getState().ordinal())
+                .description("redis 熔断状态，0 关闭，1 打开，2 半开").register(meterRegistry);
+        FunctionCounter.builder("huaguoshan.redis.circuitbreaker.rejected", this, RedisCircuitBreaker::getRejectedCount)
+                .description("熔断期间拒绝访问 redis 的次数").register(meterRegistry);
+    }
+
+    /**
+     * 是否允许访问 redis，熔断打开期间返回 false；半开状态只放行一次探测调用，
+     * 探测调用超过 {@code openDuration} 未返回结果时再放行一次
+     * @return 是否允许访问 redis
+     */
+    public boolean tryAcquirePermission() {
+        State current = state.get();
+        if (State.CLOSED.equals(current)) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long last = transitionTime.get();
+        if (now - last >= openDuration && transitionTime.compareAndSet(last, now)) {
+            // 只有一个线程能更新时间成为探测调用，期间熔断被关闭时不再改回半开
+            state.compareAndSet(current, State.HALF_OPEN);
+            return true;
+        }
+        rejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * 记录调用成功，耗时超过 {@code slowCallDuration} 时视为失败
+     * @param startNanos 调用开始时间，{@link System#nanoTime()}
+     */
+    public void onSuccess(long startNanos) {
+        if (System.nanoTime() - startNanos > slowCallDuration) {
+            onError();
+            return;
+        }
+        failures.set(0);
+        State current = state.get();
+        if (!State.CLOSED.equals(current) && state.compareAndSet(current, State.CLOSED)) {
+            logger.info("redis 恢复，关闭熔断");
+        }
+    }
+
+    /**
+     * 记录调用失败，连续失败达到阈值或半开探测失败时打开熔断
+     */
+    public void onError() {
+        int count = failures.incrementAndGet();
+        State current = state.get();
+        if ((State.HALF_OPEN.equals(current) || (State.CLOSED.equals(current) && count >= failureThreshold))
+                && state.compareAndSet(current, State.OPEN)) {
+            transitionTime.set(System.nanoTime());
+            logger.warn("redis 连续失败 " + count + " 次，打开熔断");
+        }
+    }
+
+    /**
+     * 获取熔断状态
+     * @return 熔断状态
+     */
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 获取共享 redis 的实例数量
+     * @return 实例数量
+     */
+    public int getInstances() {
+        return instances;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * 熔断状态
+     */
+    public enum State {
+
+        /** 关闭，正常访问 redis */
+        CLOSED,
+
+        /** 打开，不访问 redis */
+        OPEN,
+
+        /** 半开，放行一次探测调用 */
+        HALF_OPEN
+
+    }
+
+}
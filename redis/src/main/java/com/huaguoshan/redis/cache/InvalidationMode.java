@@ -0,0 +1,17 @@
+package com.huaguoshan.redis.cache;
+
+/**
+ * 近端缓存失效通知方式
+ * 
+ * @author gaox
+ *
+ */
+public enum InvalidationMode {
+
+    /** 通过 NearCache 修改数据时向失效频道发布键名，其他方式修改的数据只能等待缓存过期 */
+    CHANNEL,
+
+    /** 订阅 redis 键空间通知，任何客户端修改数据都会失效，需要服务端开启 notify-keyspace-events（至少包含 K 和 A） */
+    KEYSPACE
+
+}
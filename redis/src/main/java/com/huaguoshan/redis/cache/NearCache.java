@@ -0,0 +1,379 @@
+package com.huaguoshan.redis.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * redis 本地近端缓存
+ * <p>
+ * 在本地保存反序列化后的值，命中时不访问 redis；数量超过上限时按最后访问时间移出最久未访问的 1/10，
+ * 超过过期时间的值在下次读取时移出。其他实例修改数据后通过 {@link InvalidationMode} 指定的方式通知失效，
+ * 订阅断开期间错过的通知只能等待过期，过期时间是缓存值最长的过时时间
+ * <p>
+ * {@link InvalidationMode#KEYSPACE} 方式只订阅指定库中以键名前缀开头的键，不以前缀开头的键只读取 redis、不在本地缓存
+ * <p>
+ * 读取 redis 期间同一个键收到失效通知时不缓存读到的值，避免旧值覆盖失效结果；其他键的失效不影响缓存
+ * <p>
+ * 作为 Spring bean 时由 Spring Boot Actuator 自动注册 huaguoshan.nearcache.* 指标
+ *
+ * @author gaox
+ *
+ */
+public class NearCache implements MessageListener, MeterBinder {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    // 键空间通知频道前缀，频道名称为 __keyspace@<db>__:<key>
+    private final static String KEYSPACE_PREFIX = "__keyspace@";
+
+    private final static String KEYSPACE_SEPARATOR = "__:";
+
+    // redisTemplate
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 失效通知方式
+    private InvalidationMode invalidationMode;
+
+    // 失效频道
+    private String channel;
+
+    // 缓存键名前缀，空字符串表示所有键
+    private String keyPrefix;
+
+    // 缓存数量上限
+    private int maxSize;
+
+    // 过期时间，纳秒
+    private long ttl;
+
+    // 键名 -> 缓存值
+    private ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // 键名 -> 读取 redis 的标记，读取前放入，失效时移出，读取后标记仍在才保留缓存值
+    private ConcurrentMap<String, Object> loading = new ConcurrentHashMap<>();
+
+    // 同一时间只有一个线程移出超出上限的缓存
+    private AtomicBoolean evicting = new AtomicBoolean();
+
+    // 命中次数
+    private LongAdder hitCount = new LongAdder();
+
+    // 未命中（读取 redis）次数
+    private LongAdder missCount = new LongAdder();
+
+    // 超出上限或过期移出次数
+    private LongAdder evictionCount = new LongAdder();
+
+    // 收到失效通知次数
+    private LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * 创建近端缓存，并订阅失效通知
+     * @param redisTemplate redisTemplate
+     * @param container redis 消息监听容器
+     * @param invalidationMode 失效通知方式
+     * @param channel 失效频道，{@link InvalidationMode#CHANNEL} 方式使用
+     * @param database redis 库编号，{@link InvalidationMode#KEYSPACE} 方式使用
+     * @param keyPrefix 缓存键名前缀，{@link InvalidationMode#KEYSPACE} 方式只订阅并缓存以该前缀开头的键，空字符串表示所有键
+     * @param maxSize 缓存数量上限
+     * @param ttl 过期时间
+     */
+    public NearCache(RedisTemplate<String, Object> redisTemplate, RedisMessageListenerContainer container,
+            InvalidationMode invalidationMode, String channel, int database, String keyPrefix, int maxSize, Duration ttl) {
+        Assert.notNull(redisTemplate, "redisTemplate 不能为空");
+        Assert.notNull(container, "container 不能为空");
+        Assert.notNull(invalidationMode, "invalidationMode 不能为空");
+        Assert.hasText(channel, "channel 不能为空");
+        Assert.isTrue(database >= 0, "database 不能小于 0");
+        Assert.notNull(keyPrefix, "keyPrefix 不能为空");
+        Assert.isTrue(maxSize > 0, "maxSize 必须大于 0");
+        Assert.isTrue(ttl != null && !ttl.isNegative() && !ttl.isZero(), "ttl 必须大于 0");
+        this.redisTemplate = redisTemplate;
+        this.invalidationMode = invalidationMode;
+        this.channel = channel;
+        this.keyPrefix = keyPrefix;
+        this.maxSize = maxSize;
+        this.ttl = ttl.toNanos();
+        if (InvalidationMode.KEYSPACE.equals(invalidationMode)) {
+            container.addMessageListener(this, new PatternTopic(KEYSPACE_PREFIX + database + KEYSPACE_SEPARATOR + escape(keyPrefix) + "*"));
+        } else {
+            container.addMessageListener(this, new ChannelTopic(channel));
+        }
+    }
+
+    /**
+     * 读取值，本地未缓存时从 redis 读取并缓存，redis 中不存在的值不缓存
+     * @param key 键名
+     * @return 值，不存在返回 null
+     */
+    public Object get(String key) {
+        Entry entry = entries.get(key);
+        long now = System.nanoTime();
+        if (entry != null) {
+            if (now - entry.createTime < ttl) {
+                entry.lastAccess = now;
+                hitCount.increment();
+                return entry.value;
+            }
+            if (entries.remove(key, entry)) {
+                evictionCount.increment();
+            }
+        }
+        missCount.increment();
+        Object token = new Object();
+        loading.put(key, token);
+        Object value;
+        try {
+            value = redisTemplate.opsForValue().get(key);
+        } catch (RuntimeException ex) {
+            loading.remove(key, token);
+            throw ex;
+        }
+        if (value == null || !cacheable(key)) {
+            loading.remove(key, token);
+            return value;
+        }
+        // 先缓存再检查标记：失效在检查之前发生时由这里移出，在检查之后发生时由 invalidate 移出
+        Entry loaded = new Entry(value, now);
+        entries.put(key, loaded);
+        if (!loading.remove(key, token)) {
+            entries.remove(key, loaded);
+        } else if (entries.size() > maxSize) {
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * 写入 redis，并通知所有实例失效
+     * @param key 键名
+     * @param value 值
+     */
+    public void set(String key, Object value) {
+        redisTemplate.opsForValue().set(key, value);
+        invalidate(key);
+        publish(key);
+    }
+
+    /**
+     * 写入 redis 并设置过期时间，并通知所有实例失效
+     * @param key 键名
+     * @param value 值
+     * @param timeout redis 中的过期时间
+     */
+    public void set(String key, Object value, Duration timeout) {
+        redisTemplate.opsForValue().set(key, value, timeout);
+        invalidate(key);
+        publish(key);
+    }
+
+    /**
+     * 从 redis 删除，并通知所有实例失效
+     * @param key 键名
+     * @return 是否删除
+     */
+    public Boolean delete(String key) {
+        Boolean deleted = redisTemplate.delete(key);
+        invalidate(key);
+        publish(key);
+        return deleted;
+    }
+
+    /**
+     * 只移出本地缓存
+     * @param key 键名
+     */
+    public void invalidate(String key) {
+        loading.remove(key);
+        entries.remove(key);
+    }
+
+    /**
+     * 移出所有本地缓存
+     */
+    public void invalidateAll() {
+        loading.clear();
+        entries.clear();
+    }
+
+    /**
+     * 本地缓存数量
+     * @return 缓存数量
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("huaguoshan.nearcache.size", this, NearCache::size).description("本地缓存数量").register(registry);
+        FunctionCounter.builder("huaguoshan.nearcache.requests", this, NearCache::getHitCount).description("读取次数")
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("huaguoshan.nearcache.requests", this, NearCache::getMissCount).description("读取次数")
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("huaguoshan.nearcache.evictions", this, NearCache::getEvictionCount).description("超出上限或过期移出次数")
+                .register(registry);
+        FunctionCounter.builder("huaguoshan.nearcache.invalidations", this, NearCache::getInvalidationCount).description("收到失效通知次数")
+                .register(registry);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key;
+        if (InvalidationMode.KEYSPACE.equals(invalidationMode)) {
+            String name = new String(message.getChannel(), StandardCharsets.UTF_8);
+            int index = name.indexOf(KEYSPACE_SEPARATOR);
+            if (index < 0) {
+                return;
+            }
+            key = name.substring(index + KEYSPACE_SEPARATOR.length());
+        } else {
+            key = new String(message.getBody(), StandardCharsets.UTF_8);
+        }
+        invalidationCount.increment();
+        invalidate(key);
+    }
+
+    /**
+     * 向失效频道发布键名，键空间通知由 redis 发布
+     */
+    private void publish(String key) {
+        if (InvalidationMode.KEYSPACE.equals(invalidationMode)) {
+            return;
+        }
+        try {
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(
+                    channel.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception ex) {
+            // 其他实例只能等待缓存过期
+            logger.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * 键空间通知方式只有以键名前缀开头的键能收到失效通知，其他键不缓存
+     */
+    private boolean cacheable(String key) {
+        return !InvalidationMode.KEYSPACE.equals(invalidationMode) || key.startsWith(keyPrefix);
+    }
+
+    /**
+     * 转义订阅模式中的通配符，键名前缀按字面匹配
+     */
+    private static String escape(String prefix) {
+        StringBuilder builder = new StringBuilder(prefix.length());
+        for (char c : prefix.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 先移出过期的缓存，仍超过数量上限时按最后访问时间移出最久未访问的 1/10
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (now - entry.getValue().createTime >= ttl && entries.remove(entry.getKey(), entry.getValue())) {
+                    evictionCount.increment();
+                }
+            }
+            int surplus = entries.size() - maxSize;
+            if (surplus <= 0) {
+                return;
+            }
+            // 最后访问时间会被并发修改，先取快照再排序，移出不晚于第 evict 个访问时间的缓存
+            List<Long> accesses = new ArrayList<>(entries.size());
+            for (Entry entry : entries.values()) {
+                accesses.add(entry.lastAccess);
+            }
+            Collections.sort(accesses);
+            int evict = Math.min(accesses.size(), surplus + maxSize / 10);
+            if (evict <= 0) {
+                return;
+            }
+            long threshold = accesses.get(evict - 1);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (evict <= 0) {
+                    break;
+                }
+                if (entry.getValue().lastAccess <= threshold && entries.remove(entry.getKey(), entry.getValue())) {
+                    evictionCount.increment();
+                    evict--;
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * 缓存值
+     */
+    private static class Entry {
+
+        // 反序列化后的值
+        private final Object value;
+
+        // 缓存时间，纳秒
+        private final long createTime;
+
+        // 最后访问时间，纳秒
+        private volatile long lastAccess;
+
+        private Entry(Object value, long createTime) {
+            this.value = value;
+            this.createTime = createTime;
+            this.lastAccess = createTime;
+        }
+
+    }
+
+}
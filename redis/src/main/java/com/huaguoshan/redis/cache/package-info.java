@@ -0,0 +1,4 @@
+/**
+ * redis 本地近端缓存
+ */
+package com.huaguoshan.redis.cache;
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.huaguoshan.redis.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import com.huaguoshan.redis.cache.InvalidationMode;
+import com.huaguoshan.redis.serializer.SerializerType;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * HuaGuoShanRedis 配置信息，前缀 {@code huaguoshan.redis}
+ * 
+ * @author gaox
+ *
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "huaguoshan.redis")
+public class HuaGuoShanRedisProperties {
+
+    // redisTemplate 值序列化方式，切换后已有数据无法读取
+    private SerializerType serializer = SerializerType.JACKSON;
+
+    // 异步 API 执行 redis 命令的线程数，redis 客户端是阻塞的，不宜超过连接池大小
+    private int asyncThreads = 8;
+
+    // 分布式锁配置
+    private Lock lock = new Lock();
+
+    // 锁、限流器实例注册表配置
+    private Registry registry = new Registry();
+
+    // 本地近端缓存配置
+    private NearCache nearCache = new NearCache();
+
+    // 监控指标配置
+    private Metrics metrics = new Metrics();
+
+    // redis 熔断降级配置
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    // lettuce 连接配置，spring.redis.client-type 为 lettuce 时生效
+    private Lettuce lettuce = new Lettuce();
+
+    @Getter
+    @Setter
+    public static class Lock {
+
+        // 看门狗模式下锁的过期时间，看门狗每隔 1/3 过期时间续期一次
+        private Duration watchdogTimeout = Duration.ofSeconds(30);
+
+        // 看门狗单次续期脚本最多包含的锁数量
+        private int watchdogBatchSize = 500;
+
+        // 两级锁 redis 锁连续交给本地等待者的最大次数，达到后释放 redis 锁让其他实例获取，0 表示不交接
+        private int maxHandoffs = 16;
+
+    }
+
+    @Getter
+    @Setter
+    public static class Registry {
+
+        // 每种实例的数量上限
+        private int maxSize = 10000;
+
+        // 超过空闲时间未被访问的实例会被移出
+        private Duration idleTimeout = Duration.ofMinutes(30);
+
+    }
+
+    @Getter
+    @Setter
+    public static class NearCache {
+
+        // 是否启用，启用后可以注入 com.huaguoshan.redis.cache.NearCache
+        private boolean enabled = false;
+
+        // 本地缓存数量上限
+        private int maxSize = 10000;
+
+        // 本地缓存过期时间，也是错过失效通知时缓存值最长的过时时间
+        private Duration ttl = Duration.ofMinutes(1);
+
+        // 失效通知方式
+        private InvalidationMode invalidationMode = InvalidationMode.CHANNEL;
+
+        // 失效频道
+        private String channel = "huaguoshan_cache__invalidate";
+
+        // 缓存键名前缀，键空间通知方式只订阅并缓存 spring.redis.database 库中以该前缀开头的键，为空时订阅该库所有键
+        private String keyPrefix = "";
+
+    }
+
+    @Getter
+    @Setter
+    public static class Metrics {
+
+        // 是否向 Micrometer 注册锁、限流器指标，指标按锁名称、限流名称打标签，名称数量很多时可以关闭
+        private boolean enabled = true;
+
+    }
+
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+
+        // 是否启用，启用后 redis 异常或熔断期间限流器降级为本地限流，熔断期间获取锁直接失败
+        // 默认关闭，启用时需要同时按实际部署设置 instances，否则降级期间每个实例都按全局容量放行
+        private boolean enabled = false;
+
+        // 连续失败多少次打开熔断
+        private int failureThreshold = 5;
+
+        // redis 调用耗时超过该时间视为失败
+        private Duration slowCallDuration = Duration.ofSeconds(1);
+
+        // 熔断打开到放行探测调用的时间
+        private Duration openDuration = Duration.ofSeconds(10);
+
+        // 共享 redis 的实例数量，降级期间每个实例分得全局限流容量的 1/instances
+        private int instances = 1;
+
+    }
+
+    @Getter
+    @Setter
+    public static class Lettuce {
+
+        // 是否合并 flush，多个线程并发写入的命令在事件循环中合并为一次系统调用写出
+        private boolean flushConsolidation = true;
+
+        // 有读操作进行中时，最多累积多少次 flush 后强制写出
+        private int explicitFlushAfterFlushes = 256;
+
+    }
+
+}
@@ -1,10 +1,17 @@
 package com.huaguoshan.redis.config;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.ClientResourcesBuilderCustomizer;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
@@ -12,31 +19,97 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.huaguoshan.redis.cache.NearCache;
+import com.huaguoshan.redis.serializer.CompactRedisSerializer;
+import com.huaguoshan.redis.serializer.SerializerType;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.resource.NettyCustomizer;
+import io.netty.channel.Channel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 
 @Configuration
+@EnableConfigurationProperties(HuaGuoShanRedisProperties.class)
 public class RedisConfig {
 
     @Bean
-    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory, HuaGuoShanRedisProperties properties) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(connectionFactory);
 
+        RedisSerializer<Object> valueSerializer;
+        if (SerializerType.COMPACT.equals(properties.getSerializer())) {
+            valueSerializer = new CompactRedisSerializer();
+        } else {
+            valueSerializer = jackson2JsonRedisSerializer();
+        }
+
+        StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
+        template.setKeySerializer(stringRedisSerializer);
+        template.setValueSerializer(valueSerializer);
+
+        template.setHashKeySerializer(valueSerializer);
+        template.setHashValueSerializer(valueSerializer);
+
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * 带类名前缀的 JSON 序列化
+     * @return
+     */
+    public static Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer() {
         Jackson2JsonRedisSerializer<Object> jackson2JsonRedisSerializer = new Jackson2JsonRedisSerializer<>(Object.class);
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
 //        objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
         objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance , ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.WRAPPER_ARRAY);
         jackson2JsonRedisSerializer.setObjectMapper(objectMapper);
+        return jackson2JsonRedisSerializer;
+    }
 
-        StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
-        template.setKeySerializer(stringRedisSerializer);
-        template.setValueSerializer(jackson2JsonRedisSerializer);
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "huaguoshan.redis.near-cache", name = "enabled", havingValue = "true")
+    public NearCache nearCache(RedisTemplate<String, Object> redisTemplate, RedisMessageListenerContainer container,
+            HuaGuoShanRedisProperties properties, RedisProperties redisProperties) {
+        HuaGuoShanRedisProperties.NearCache nearCache = properties.getNearCache();
+        return new NearCache(redisTemplate, container, nearCache.getInvalidationMode(), nearCache.getChannel(),
+                redisProperties.getDatabase(), nearCache.getKeyPrefix(), nearCache.getMaxSize(), nearCache.getTtl());
+    }
 
-        template.setHashKeySerializer(jackson2JsonRedisSerializer);
-        template.setHashValueSerializer(jackson2JsonRedisSerializer);
+    /**
+     * lettuce 连接配置，spring.redis.client-type 为 lettuce 时所有线程的命令复用少量连接，不再排队等待连接池；
+     * 同时关闭 spring.redis.lettuce.pool.enabled，使用共享的原生连接
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(RedisClient.class)
+    static class LettuceConfig {
+
+        /**
+         * 合并 flush：并发写入的命令先写入缓冲区，由事件循环合并为一次 flush，减少系统调用
+         * @param properties HuaGuoShanRedis 配置信息
+         * @return ClientResources 定制
+         */
+        @Bean
+        @ConditionalOnProperty(prefix = "huaguoshan.redis.lettuce", name = "flush-consolidation", havingValue = "true", matchIfMissing = true)
+        public ClientResourcesBuilderCustomizer flushConsolidationCustomizer(HuaGuoShanRedisProperties properties) {
+            int explicitFlushAfterFlushes = properties.getLettuce().getExplicitFlushAfterFlushes();
+            return builder -> builder.nettyCustomizer(new NettyCustomizer() {
+                @Override
+                public void afterChannelInitialized(Channel channel) {
+                    channel.pipeline().addFirst(new FlushConsolidationHandler(explicitFlushAfterFlushes, true));
+                }
+            });
+        }
 
-        template.afterPropertiesSet();
-        return template;
     }
 
 }
@@ -0,0 +1,453 @@
+package com.huaguoshan.redis.limit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+import com.huaguoshan.redis.RedisCircuitBreaker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * 自适应并发限流器，按观测到的往返延迟自动调整允许的并发调用数量，不需要配置固定的限流容量
+ * <p>
+ * 调用前 {@link #tryAcquire()} 获取许可，进行中的调用数量达到并发限制时直接拒绝；调用结束后通过
+ * {@link Permit} 报告结果，限流器以获取许可到报告结果的耗时作为往返延迟样本调整并发限制：
+ * <ul>
+ * <li>{@link AdaptiveLimiterType#AIMD}：延迟超过阈值或调用被丢弃时按比例缩小，缩小之前获取许可的调用不再触发缩小，
+ * 即每个往返延迟最多缩小一次；否则每个样本增加 1/限制，即每个往返延迟约增加 1</li>
+ * <li>{@link AdaptiveLimiterType#GRADIENT}：以无排队延迟 * 容忍倍数 / 本次延迟作为梯度（0.5 ~ 1），
+ * 新限制 = 限制 * 梯度 + sqrt(限制)，再按平滑系数与原限制加权；下游排队时延迟升高，限制随之收缩。
+ * 无排队延迟取最近两个采样窗口内的最小延迟，下游基础延迟变化后约两个窗口内适应</li>
+ * </ul>
+ * 进行中的调用不足限制的一半时不增加限制，避免空闲期间限制无限增长。
+ * <p>
+ * 配置 {@link AdaptiveLimiterConfig#getPublishInterval()} 大于 0 时，每隔发布间隔在线程池中把本实例的限制写入 redis，
+ * 所有存活实例限制的平均值作为本实例限制的上限：本实例的限制高于集群平均值时降到平均值，低于时保持不变，
+ * 本地观察到的过载收缩不会被其他实例的较高限制抵消；超过 3 个发布间隔未发布的实例视为下线。
+ * redis 异常或熔断期间只在本地调整，不影响获取许可
+ *
+ * @author gaox
+ *
+ */
+public class AdaptiveLimiter {
+
+    /** slf4j logger */
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    /** 共享并发限制的键名前缀，hash 保存各实例的限制 */
+    public final static String LIMITS_PREFIX = "huaguoshan_adaptive__limits:";
+
+    /** 实例存活时间的键名前缀，zset 保存各实例的过期时间 */
+    public final static String ALIVE_PREFIX = "huaguoshan_adaptive__alive:";
+
+    /**
+     * 指标注册表 -> 名称和算法类型 -> 最新创建的实例。Micrometer 按名称和标签去重，同名限流器替换或被实例注册表移出后
+     * 重新创建时，注册返回的是已有的 gauge，因此 gauge 读取这里保存的最新实例，而不是创建 gauge 的实例
+     */
+    private final static Map<MeterRegistry, ConcurrentMap<String, AtomicReference<AdaptiveLimiter>>> CURRENT =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** 自适应并发限流器配置信息 */
+    private AdaptiveLimiterConfig config;
+
+    /** redisTemplate，不发布时为 null */
+    private RedisTemplate<String, Object> redisTemplate;
+
+    /** 发布并发限制的线程池，不发布时为 null */
+    private Executor executor;
+
+    /** 客户端实例标识，发布时区分各实例的限制 */
+    private String instanceId;
+
+    /** redis 熔断器，为 null 时不熔断 */
+    private RedisCircuitBreaker circuitBreaker;
+
+    /** 发布并发限制的键名 */
+    private List<String> publishKeys;
+
+    /** 发布间隔，纳秒，0 表示不发布 */
+    private long publishInterval;
+
+    /** 当前并发限制，调整时保留小数，只在同步块内读写 */
+    private double estimatedLimit;
+
+    /** 当前并发限制 */
+    private volatile int limit;
+
+    /** 当前采样窗口内的最小往返延迟，纳秒，只在同步块内读写 */
+    private long windowMinRtt = Long.MAX_VALUE;
+
+    /** 上一个采样窗口内的最小往返延迟，纳秒，只在同步块内读写 */
+    private long lastWindowMinRtt = Long.MAX_VALUE;
+
+    /** 当前采样窗口已采样次数，只在同步块内读写 */
+    private int windowSamples;
+
+    /** 最近一次缩小限制的时间，纳秒，只在同步块内读写 */
+    private long lastDecrease;
+
+    /** 进行中的调用数量 */
+    private AtomicInteger inFlight = new AtomicInteger();
+
+    /** 下次发布时间，纳秒 */
+    private AtomicLong nextPublish = new AtomicLong(System.nanoTime());
+
+    /** 获取许可成功次数 */
+    private Counter permitted;
+
+    /** 获取许可被拒绝次数 */
+    private Counter denied;
+
+    /** 调用被丢弃次数 */
+    private Counter dropped;
+
+    /** 往返延迟 */
+    private Timer rtt;
+
+    // 发布并发限制 lua 脚本
+    // KEYS[1] 各实例的限制，KEYS[2] 各实例的过期时间，ARGV[1] 客户端实例标识，ARGV[2] 本实例的限制，ARGV[3] 实例存活时间（毫秒）
+    // 先移出已过期实例的限制，再写入本实例的限制，返回所有存活实例限制的平均值（四舍五入）
+    private final static String PUBLISH = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "local expired = redis.call('zrangebyscore', KEYS[2], 0, now); "
+            + "for i = 1, #expired do "
+            + "    redis.call('hdel', KEYS[1], expired[i]); "
+            + "end; "
+            + "redis.call('zremrangebyscore', KEYS[2], 0, now); "
+            + "redis.call('zadd', KEYS[2], now + tonumber(ARGV[3]), ARGV[1]); "
+            + "redis.call('hset', KEYS[1], ARGV[1], ARGV[2]); "
+            + "redis.call('pexpire', KEYS[1], ARGV[3]); "
+            + "redis.call('pexpire', KEYS[2], ARGV[3]); "
+            + "local limits = redis.call('hvals', KEYS[1]); "
+            + "local sum = 0; "
+            + "for i = 1, #limits do "
+            + "    sum = sum + tonumber(limits[i]); "
+            + "end; "
+            + "return math.floor(sum / #limits + 0.5);";
+
+    private final static RedisScript<Long> PUBLISH_SCRIPT = new DefaultRedisScript<>(PUBLISH, Long.class);
+
+    protected AdaptiveLimiter(AdaptiveLimiterConfig config, RedisTemplate<String, Object> redisTemplate, Executor executor, String instanceId,
+            MeterRegistry meterRegistry, RedisCircuitBreaker circuitBreaker) {
+        this.config = config;
+        this.redisTemplate = redisTemplate;
+        this.executor = executor;
+        this.instanceId = instanceId;
+        this.circuitBreaker = circuitBreaker;
+        this.publishInterval = config.getPublishInterval().toNanos();
+        this.publishKeys = new ArrayList<>();
+        publishKeys.add(ClusterKeys.derive(LIMITS_PREFIX, config.getName()));
+        publishKeys.add(ClusterKeys.derive(ALIVE_PREFIX, config.getName()));
+        this.estimatedLimit = config.getInitialLimit();
+        this.limit = config.getInitialLimit();
+        String name = config.getName();
+        String type = config.getType().name();
+        permitted = Counter.builder("huaguoshan.adaptivelimiter.permission").description("获取许可次数")
+                .tag("name", name).tag("type", type).tag("result", "permitted").register(meterRegistry);
+        denied = Counter.builder("huaguoshan.adaptivelimiter.permission").description("获取许可次数")
+                .tag("name", name).tag("type", type).tag("result", "denied").register(meterRegistry);
+        dropped = Counter.builder("huaguoshan.adaptivelimiter.dropped").description("调用被丢弃次数")
+                .tag("name", name).tag("type", type).register(meterRegistry);
+        rtt = Timer.builder("huaguoshan.adaptivelimiter.rtt").description("调用往返延迟")
+                .tag("name", name).tag("type", type).register(meterRegistry);
+        AtomicReference<AdaptiveLimiter> current = CURRENT.computeIfAbsent(meterRegistry, registry -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name + ":" + type, key -> new AtomicReference<>());
+        current.set(this);
+        Gauge.builder("huaguoshan.adaptivelimiter.limit", current, reference -> reference.get().getLimit()).description("当前并发限制")
+                .tag("name", name).tag("type", type).register(meterRegistry);
+        Gauge.builder("huaguoshan.adaptivelimiter.inflight", current, reference -> reference.get().getInFlight()).description("进行中的调用数量")
+                .tag("name", name).tag("type", type).register(meterRegistry);
+    }
+
+    /**
+     * 获取只在本地调整并发限制的自适应并发限流器实例，不发布到 redis，不注册监控指标
+     * @param config 自适应并发限流器配置信息，{@code publishInterval} 必须为 0
+     * @return 自适应并发限流器实例
+     */
+    public static AdaptiveLimiter instance(AdaptiveLimiterConfig config) {
+        // 没有添加任何注册表的组合注册表，注册的都是空操作指标
+        return instance(config, null, null, null, new CompositeMeterRegistry(), null);
+    }
+
+    /**
+     * 获取自适应并发限流器实例，并注册监控指标
+     * @param config 自适应并发限流器配置信息
+     * @param redisTemplate redisTemplate，不发布时可以为 null
+     * @param executor 发布并发限制的线程池，不发布时可以为 null
+     * @param instanceId 客户端实例标识，不发布时可以为 null
+     * @param meterRegistry 监控指标注册表
+     * @param circuitBreaker redis 熔断器，为 null 时不熔断
+     * @return 自适应并发限流器实例
+     */
+    public static AdaptiveLimiter instance(AdaptiveLimiterConfig config, RedisTemplate<String, Object> redisTemplate, Executor executor, String instanceId,
+            MeterRegistry meterRegistry, RedisCircuitBreaker circuitBreaker) {
+        Assert.notNull(config, "config 不能为空");
+        Assert.notNull(config.getName(), "name 不能为空");
+        Assert.notNull(config.getType(), "type 不能为空");
+        Assert.isTrue(config.getMinLimit() > 0, "minLimit 必须大于 0");
+        Assert.isTrue(config.getMaxLimit() >= config.getMinLimit(), "maxLimit 不能小于 minLimit");
+        Assert.isTrue(config.getInitialLimit() >= config.getMinLimit() && config.getInitialLimit() <= config.getMaxLimit(),
+                "initialLimit 必须在 minLimit 和 maxLimit 之间");
+        Assert.notNull(config.getLatencyThreshold(), "latencyThreshold 不能为空");
+        Assert.isTrue(config.getBackoffRatio() > 0 && config.getBackoffRatio() < 1, "backoffRatio 必须大于 0 小于 1");
+        Assert.isTrue(config.getRttTolerance() >= 1, "rttTolerance 不能小于 1");
+        Assert.isTrue(config.getSmoothing() > 0 && config.getSmoothing() <= 1, "smoothing 必须大于 0 且不大于 1");
+        Assert.isTrue(config.getRttWindow() > 0, "rttWindow 必须大于 0");
+        Assert.isTrue(config.getPublishInterval() != null && !config.getPublishInterval().isNegative(), "publishInterval 不能小于 0");
+        Assert.notNull(meterRegistry, "meterRegistry 不能为空");
+        if (!config.getPublishInterval().isZero()) {
+            Assert.notNull(redisTemplate, "redisTemplate 不能为空");
+            Assert.notNull(executor, "executor 不能为空");
+            Assert.notNull(instanceId, "instanceId 不能为空");
+        }
+        AdaptiveLimiter limiter = new AdaptiveLimiter(config, redisTemplate, executor, instanceId, meterRegistry, circuitBreaker);
+        return limiter;
+    }
+
+    /**
+     * 获取自适应并发限流器配置信息
+     * @return 自适应并发限流器配置信息
+     */
+    public AdaptiveLimiterConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 获取当前并发限制
+     * @return 并发限制
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * 获取进行中的调用数量
+     * @return 进行中的调用数量
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 获取许可，不等待
+     * @return 进行中的调用数量未达到并发限制时返回许可，调用结束后必须通过许可报告结果；否则返回 null
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                denied.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                permitted.increment();
+                return new Permit(System.nanoTime(), current + 1);
+            }
+        }
+    }
+
+    /**
+     * 调用结束，按往返延迟样本调整并发限制，到达发布时间时发布
+     * @param startNanos 获取许可时间，纳秒
+     * @param concurrency 获取许可时进行中的调用数量
+     * @param drop 调用是否被丢弃（超时、下游拒绝等过载信号）
+     */
+    private void onSample(long startNanos, int concurrency, boolean drop) {
+        long now = System.nanoTime();
+        long sample = now - startNanos;
+        rtt.record(sample, TimeUnit.NANOSECONDS);
+        if (drop) {
+            dropped.increment();
+        }
+        synchronized (this) {
+            double newLimit;
+            if (AdaptiveLimiterType.AIMD.equals(config.getType())) {
+                newLimit = aimd(now, startNanos, sample, concurrency, drop);
+            } else {
+                newLimit = gradient(sample, concurrency, drop);
+            }
+            setLimit(newLimit);
+        }
+        publishIfDue(now);
+    }
+
+    /**
+     * 加性增乘性减，只在同步块内调用
+     * @param now 当前时间，纳秒
+     * @param startNanos 获取许可时间，纳秒
+     * @param sample 往返延迟，纳秒
+     * @param concurrency 获取许可时进行中的调用数量
+     * @param drop 调用是否被丢弃
+     * @return 新的并发限制
+     */
+    private double aimd(long now, long startNanos, long sample, int concurrency, boolean drop) {
+        if (drop || sample > config.getLatencyThreshold().toNanos()) {
+            // 缩小之前获取许可的调用反映的是缩小之前的并发，不再缩小
+            if (lastDecrease != 0 && startNanos - lastDecrease < 0) {
+                return estimatedLimit;
+            }
+            lastDecrease = now;
+            return estimatedLimit * config.getBackoffRatio();
+        }
+        if (concurrency * 2 < estimatedLimit) {
+            return estimatedLimit;
+        }
+        return estimatedLimit + 1 / estimatedLimit;
+    }
+
+    /**
+     * 梯度算法，只在同步块内调用
+     * @param sample 往返延迟，纳秒
+     * @param concurrency 获取许可时进行中的调用数量
+     * @param drop 调用是否被丢弃
+     * @return 新的并发限制
+     */
+    private double gradient(long sample, int concurrency, boolean drop) {
+        windowMinRtt = Math.min(windowMinRtt, sample);
+        long noLoadRtt = Math.min(windowMinRtt, lastWindowMinRtt);
+        if (++windowSamples >= config.getRttWindow()) {
+            // 下游基础延迟升高后，旧窗口的最小延迟在下一个窗口结束时淘汰
+            lastWindowMinRtt = windowMinRtt;
+            windowMinRtt = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        if (!drop && concurrency * 2 < estimatedLimit) {
+            return estimatedLimit;
+        }
+        double gradient = drop ? 0.5 : Math.max(0.5, Math.min(1.0, config.getRttTolerance() * noLoadRtt / sample));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        return estimatedLimit * (1 - config.getSmoothing()) + newLimit * config.getSmoothing();
+    }
+
+    /**
+     * 设置并发限制，限制在最小、最大并发限制之间，只在同步块内调用
+     * @param newLimit 新的并发限制
+     */
+    private void setLimit(double newLimit) {
+        estimatedLimit = Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * 到达发布时间时在线程池中发布并发限制，同一时间只有一个线程发布
+     * @param now 当前时间，纳秒
+     */
+    private void publishIfDue(long now) {
+        if (publishInterval == 0) {
+            return;
+        }
+        long next = nextPublish.get();
+        if (now - next < 0 || !nextPublish.compareAndSet(next, now + publishInterval)) {
+            return;
+        }
+        try {
+            executor.execute(this::publish);
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * 把本实例的限制写入 redis，并以所有存活实例限制的平均值作为本实例限制的上限，熔断期间不发布
+     */
+    private void publish() {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Long shared = redisTemplate.execute(PUBLISH_SCRIPT, publishKeys, instanceId, limit, TimeUnit.NANOSECONDS.toMillis(publishInterval * 3));
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess(start);
+            }
+            if (shared != null) {
+                synchronized (this) {
+                    setLimit(Math.min(estimatedLimit, shared));
+                }
+            }
+        } catch (Exception ex) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onError();
+            }
+            logger.error(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * 获取成功的许可，调用结束后必须调用且只调用一次报告结果的方法
+     */
+    public final class Permit {
+
+        /** 获取许可时间，纳秒 */
+        private final long startNanos;
+
+        /** 获取许可时进行中的调用数量，包括本次调用 */
+        private final int concurrency;
+
+        /** 是否已报告结果，多个线程同时报告时只有一个生效 */
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long startNanos, int concurrency) {
+            this.startNanos = startNanos;
+            this.concurrency = concurrency;
+        }
+
+        /**
+         * 调用成功，以本次往返延迟调整并发限制
+         */
+        public void onSuccess() {
+            if (release()) {
+                onSample(startNanos, concurrency, false);
+            }
+        }
+
+        /**
+         * 调用被丢弃（超时、下游拒绝等过载信号），缩小并发限制
+         */
+        public void onDropped() {
+            if (release()) {
+                onSample(startNanos, concurrency, true);
+            }
+        }
+
+        /**
+         * 调用结果与下游负载无关（例如参数校验失败），只归还许可，不调整并发限制
+         */
+        public void onIgnore() {
+            release();
+        }
+
+        private boolean release() {
+            if (!released.compareAndSet(false, true)) {
+                return false;
+            }
+            inFlight.decrementAndGet();
+            return true;
+        }
+
+    }
+
+}
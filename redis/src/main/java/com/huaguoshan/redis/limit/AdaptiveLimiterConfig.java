@@ -0,0 +1,76 @@
+package com.huaguoshan.redis.limit;
+
+import java.time.Duration;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 自适应并发限流器配置信息
+ * <p>
+ * 并发限制在 {@code minLimit} 和 {@code maxLimit} 之间按观测到的往返延迟自动调整，从 {@code initialLimit} 开始。
+ * 配置信息相同的限流器在 {@code HuaGuoShanRedis} 中共享同一个实例
+ * 
+ * @author gaox
+ *
+ */
+@Getter
+@Setter
+@EqualsAndHashCode
+public class AdaptiveLimiterConfig {
+
+    // 限流器名称
+    private String name;
+
+    // 并发限制调整算法类型
+    private AdaptiveLimiterType type = AdaptiveLimiterType.GRADIENT;
+
+    // 初始并发限制
+    private int initialLimit = 20;
+
+    // 最小并发限制
+    private int minLimit = 1;
+
+    // 最大并发限制
+    private int maxLimit = 1000;
+
+    // AIMD 算法，往返延迟超过该时间视为过载
+    private Duration latencyThreshold = Duration.ofSeconds(1);
+
+    // AIMD 算法，过载时并发限制缩小的比例，每个往返延迟最多缩小一次
+    private double backoffRatio = 0.5;
+
+    // 梯度算法，允许本次延迟超过无排队延迟的倍数，超过后开始缩小并发限制
+    private double rttTolerance = 1.5;
+
+    // 梯度算法，新限制的平滑系数，越小调整越平缓
+    private double smoothing = 0.2;
+
+    // 梯度算法，统计无排队延迟（最小延迟）的采样窗口，按采样次数计算
+    private int rttWindow = 500;
+
+    // 向 redis 发布并发限制的间隔，大于 0 时各实例共享所有存活实例并发限制的平均值，默认不发布
+    private Duration publishInterval = Duration.ZERO;
+
+    /**
+     * 复制配置信息，限流器持有副本，创建之后调用方修改配置信息不影响限流器
+     * @return 配置信息副本
+     */
+    public AdaptiveLimiterConfig copy() {
+        AdaptiveLimiterConfig config = new AdaptiveLimiterConfig();
+        config.setName(name);
+        config.setType(type);
+        config.setInitialLimit(initialLimit);
+        config.setMinLimit(minLimit);
+        config.setMaxLimit(maxLimit);
+        config.setLatencyThreshold(latencyThreshold);
+        config.setBackoffRatio(backoffRatio);
+        config.setRttTolerance(rttTolerance);
+        config.setSmoothing(smoothing);
+        config.setRttWindow(rttWindow);
+        config.setPublishInterval(publishInterval);
+        return config;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.huaguoshan.redis.limit;
+
+/**
+ * 自适应并发限流器，并发限制调整算法类型
+ * 
+ * @author gaox
+ *
+ */
+public enum AdaptiveLimiterType {
+
+    /** 加性增乘性减，延迟超过阈值或调用被丢弃时按比例缩小限制（每个往返延迟最多一次），否则每个样本加 1/限制（每个往返延迟约加 1），适合有明确延迟上限的下游 */
+    AIMD,
+
+    /** 梯度，按采样窗口内最小延迟（无排队延迟）与本次延迟之比缩放限制并加上排队余量，不需要配置延迟阈值 */
+    GRADIENT
+
+}
@@ -0,0 +1,62 @@
+package com.huaguoshan.redis.limit;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地限流器，redis 熔断期间代替 redis 限流
+ * <p>
+ * 不区分限流算法，统一以 GCRA 算法按发放间隔 {@code limitRefreshPeriod / limitForPeriod} 发放许可，
+ * 最多允许 {@code burst} 次突发；理论到达时间以 CAS 更新，不加锁
+ *
+ * @author gaox
+ *
+ */
+class LocalRateLimiter {
+
+    /** 突发数量 */
+    private final int burst;
+
+    /** 发放间隔，纳秒 */
+    private final long emissionInterval;
+
+    /** 理论到达时间，纳秒 */
+    private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+    /**
+     * 创建本地限流器
+     * @param limitForPeriod 限流容量
+     * @param limitRefreshPeriod 限流刷新期间
+     * @param burst 突发数量
+     */
+    LocalRateLimiter(int limitForPeriod, Duration limitRefreshPeriod, int burst) {
+        this.burst = burst;
+        this.emissionInterval = Math.max(1, limitRefreshPeriod.toNanos() / limitForPeriod);
+    }
+
+    /**
+     * 限流控制判断
+     * @param permits 许可数量
+     * @return 限流控制判断结果，超过突发数量的请求永远不能通过，等待时间为 0
+     */
+    RateLimiterResult getPermissionResult(int permits) {
+        if (permits > burst) {
+            return new RateLimiterResult(false, 0, Duration.ZERO);
+        }
+        long burstOffset = emissionInterval * burst;
+        while (true) {
+            long now = System.nanoTime();
+            long current = tat.get();
+            long newTat = Math.max(current, now) + emissionInterval * permits;
+            long allowAt = newTat - burstOffset;
+            if (allowAt > now) {
+                long remaining = Math.max(0, (now - (Math.max(current, now) - burstOffset)) / emissionInterval);
+                return new RateLimiterResult(false, remaining, Duration.ofNanos(allowAt - now));
+            }
+            if (tat.compareAndSet(current, newTat)) {
+                return new RateLimiterResult(true, (now - allowAt) / emissionInterval, Duration.ZERO);
+            }
+        }
+    }
+
+}
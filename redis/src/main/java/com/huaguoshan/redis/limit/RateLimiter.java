@@ -1,8 +1,17 @@
 package com.huaguoshan.redis.limit;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,8 +20,43 @@ import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.util.Assert;
 
+import com.huaguoshan.redis.ClusterKeys;
+import com.huaguoshan.redis.RedisCircuitBreaker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
 /**
  * 频率限流器实现
+ * <p>
+ * 配置 {@link RateLimiterConfig#getLeaseSize()} 大于 1 时启用批量预取：
+ * 每次向 redis 预取一批许可，在本地通过无锁计数器发放，用完或过期后再预取，
+ * 以牺牲一定的全局精确性换取更少的 redis 往返：
+ * <ul>
+ * <li>预取的许可在 redis 中立即计入限流次数，本地未用完的许可随过期丢弃，不归还，
+ * 因此各实例总通过次数不会超过限流容量，但可能少于限流容量</li>
+ * <li>固定窗口算法，预取的许可只在当前窗口内有效，不会超发</li>
+ * <li>GCRA 算法，预取的许可只在按发放间隔发放完所需的时间内有效</li>
+ * <li>滑动窗口及滑动窗口计数器算法，预取的许可在一个限流区间内有效，任意滑动窗口内最多可能超发
+ * 实例数 * 预取数量次</li>
+ * <li>预取不到许可时，在本地记录窗口剩余时间，期间的请求直接在本地拒绝</li>
+ * </ul>
+ * 批量预取的状态保存在实例中，同一限流器应复用同一个实例。
+ * <p>
+ * 异步方法在 {@code executor} 中执行 redis 命令，批量预取模式下本地许可足够时直接返回已完成的 future
+ * <p>
+ * 配置 {@link RateLimiterConfig#getShards()} 大于 1 时启用分片：限流容量（GCRA 算法还有突发数量）平分到 K 个键，
+ * 余数分给前面的分片，各分片使用不同的 hash tag，在 redis 集群中分布到不同的槽和节点，热点限流器可以水平扩展。
+ * 每次判断随机选择一个分片，只在该分片上计数，以牺牲全局精确性换取 K 倍的单键吞吐：
+ * <ul>
+ * <li>所有分片的总通过次数不会超过限流容量</li>
+ * <li>请求分布不均时，选中的分片已用完而其他分片仍有余量，请求会被提前拒绝，请求量越大越接近均匀</li>
+ * <li>单次许可数量不能超过最小分片的容量，返回的剩余次数是选中分片的剩余次数</li>
+ * <li>分片键名为 {@code {name:i}}，限流器名称不能包含 hash tag</li>
+ * </ul>
+ * 指定 {@link RedisCircuitBreaker} 时启用降级：redis 调用异常或熔断打开期间，改用本地限流器按
+ * 全局限流容量（GCRA 算法还有突发数量）的 1/{@code instances} 限流，不再全部拒绝；熔断打开期间不访问 redis，
+ * 不等待超时。本地限流器统一使用 GCRA 算法，各实例之间不协调，只是近似的全局限流。未指定时 redis 异常的请求不通过
  * 
  * @author gaox
  *
@@ -28,81 +72,855 @@ public class RateLimiter {
     /** redisTemplate */
     private RedisTemplate<String, Object> redisTemplate;
 
+    /** 异步 API 执行 redis 命令的线程池 */
+    private Executor executor;
+
+    /** 监控指标 */
+    private RateLimiterMetrics metrics;
+
+    /** 是否连接 redis 集群，集群模式下批量判断按槽分组执行 */
+    private boolean cluster;
+
+    /** redis 熔断器，为 null 时不降级 */
+    private RedisCircuitBreaker circuitBreaker;
+
+    /** redis 异常或熔断期间使用的本地限流器 */
+    private LocalRateLimiter fallback;
+
+    /** 当前预取的许可 */
+    private volatile Lease lease;
+
+    /** 等待获取许可时，脚本未给出等待时间（异常或预取的许可不足）的重试间隔，毫秒 */
+    private final static long RETRY_INTERVAL = 10L;
+
     // 限流验证 lua 脚本，固定窗口算法实现
-    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间，毫秒
-    // 通过限流控制返回当前次数，不通过返回 0
+    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间，毫秒，ARGV[3] 许可数量
+    // 返回 {是否通过（1 通过，0 不通过）, 剩余次数, 不通过时需要等待的时间（毫秒）}
     private final static String GET_PERMISSION = "local key = KEYS[1]; "
             + "local limitForPeriod = tonumber(ARGV[1]); "
             + "local limitRefreshPeriod = tonumber(ARGV[2]); "
+            + "local permits = tonumber(ARGV[3]); "
             + "local current = tonumber(redis.call('get', key) or '0'); "
-            + "if (current >= limitForPeriod) then "
-            + "    return 0; "
+            + "if (current + permits > limitForPeriod) then "
+            + "    return {0, math.max(0, limitForPeriod - current), math.max(0, redis.call('pttl', key))}; "
             + "else "
-            + "    redis.call('incrby', key, 1); "
+            + "    redis.call('incrby', key, permits); "
             + "    if (current == 0) then "
             + "        redis.call('pexpire', key, limitRefreshPeriod); "
             + "    end "
-            + "    return current + 1; "
+            + "    return {1, limitForPeriod - current - permits, 0}; "
             + "end;";
 
     // 限流验证 lua 脚本，滑动窗口算法实现
-    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4] 唯一标识
-    // 通过限流控制返回当前次数，不通过返回 0
+    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4] 唯一标识，ARGV[5] 许可数量
+    // 返回 {是否通过（1 通过，0 不通过）, 剩余次数, 不通过时需要等待的时间（毫秒）}，
+    // 等待时间为空出足够许可所需移出的最后一条通过记录的剩余时间
     private final static String SLIDING_WINDOW_GET_PERMISSION = "local key = KEYS[1]; "
             + "local limitForPeriod = tonumber(ARGV[1]); "
             + "local limitRefreshPeriod = tonumber(ARGV[2]); "
             + "local now = tonumber(ARGV[3]); "
+            + "local permits = tonumber(ARGV[5]); "
             + "local expired = now - limitRefreshPeriod; "
             + "redis.call('zremrangebyscore', key, 0, expired); "
             + "local current = tonumber(redis.call('zcard', key)); "
-            + "if (current >= limitForPeriod) then "
-            + "    return 0; "
+            + "if (current + permits > limitForPeriod) then "
+            + "    local need = current + permits - limitForPeriod; "
+            + "    local head = redis.call('zrange', key, need - 1, need - 1, 'withscores'); "
+            + "    if (head[2] == nil) then "
+            + "        return {0, 0, limitRefreshPeriod}; "
+            + "    end; "
+            + "    return {0, math.max(0, limitForPeriod - current), tonumber(head[2]) - expired}; "
             + "else "
-            + "    redis.call('zadd', key, now, ARGV[4]); "
+            + "    for i = 1, permits do "
+            + "        redis.call('zadd', key, now, ARGV[4] .. ':' .. i); "
+            + "    end; "
             + "    redis.call('pexpire', key, limitRefreshPeriod + 100); "
-            + "    return current + 1; "
+            + "    return {1, limitForPeriod - current - permits, 0}; "
+            + "end;";
+
+    // 限流验证 lua 脚本，滑动窗口计数器算法实现
+    // 把限流区间等分为 windowBuckets 个桶，hash 中每个桶一个计数，内存占用只与桶数量有关
+    // 完全落在窗口内的桶全部计入，窗口起点所在的桶按落在窗口内的比例计入，近似滑动窗口
+    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4] 桶时长（毫秒），ARGV[5] 许可数量
+    // 返回 {是否通过（1 通过，0 不通过）, 剩余次数, 不通过时需要等待的时间（毫秒）}，
+    // 等待时间为最早一个桶移出窗口到足以空出所需许可的剩余时间
+    private final static String SLIDING_WINDOW_COUNTER_GET_PERMISSION = "local key = KEYS[1]; "
+            + "local limitForPeriod = tonumber(ARGV[1]); "
+            + "local limitRefreshPeriod = tonumber(ARGV[2]); "
+            + "local now = tonumber(ARGV[3]); "
+            + "local bucketSize = tonumber(ARGV[4]); "
+            + "local permits = tonumber(ARGV[5]); "
+            + "local windowStart = now - limitRefreshPeriod; "
+            + "local current = 0; "
+            + "local headStart = nil; "
+            + "local headCount = 0; "
+            + "local counters = redis.call('hgetall', key); "
+            + "for i = 1, #counters, 2 do "
+            + "    local bucketStart = tonumber(counters[i]) * bucketSize; "
+            + "    local count = tonumber(counters[i + 1]); "
+            + "    if (bucketStart + bucketSize <= windowStart) then "
+            + "        redis.call('hdel', key, counters[i]); "
+            + "    else "
+            + "        if (bucketStart < windowStart) then "
+            + "            current = current + count * (bucketStart + bucketSize - windowStart) / bucketSize; "
+            + "        else "
+            + "            current = current + count; "
+            + "        end; "
+            + "        if (headStart == nil or bucketStart < headStart) then "
+            + "            headStart = bucketStart; "
+            + "            headCount = count; "
+            + "        end; "
+            + "    end; "
+            + "end; "
+            + "current = math.floor(current); "
+            + "if (current + permits > limitForPeriod) then "
+            + "    if (headStart == nil) then "
+            + "        return {0, 0, limitRefreshPeriod}; "
+            + "    end; "
+            + "    local wait = math.max(0, headStart - windowStart) + math.ceil((current + permits - limitForPeriod) * bucketSize / headCount); "
+            + "    return {0, math.max(0, limitForPeriod - current), math.min(wait, headStart + bucketSize - windowStart)}; "
+            + "else "
+            + "    redis.call('hincrby', key, math.floor(now / bucketSize), permits); "
+            + "    redis.call('pexpire', key, limitRefreshPeriod + bucketSize); "
+            + "    return {1, limitForPeriod - current - permits, 0}; "
             + "end;";
 
-    private RateLimiter(RateLimiterConfig config, RedisTemplate<String, Object> redisTemplate) {
+    // 限流验证 lua 脚本，GCRA（通用信元速率算法）实现
+    // key 中只保存一个理论到达时间 tat，每个许可把 tat 推后一个发放间隔，tat 超前当前时间不超过 burst 个发放间隔时允许通过，
+    // 时间使用微秒，tat 用 string.format 写入，避免 lua 数字转字符串时丢失精度
+    // KEYS[1] 限流名称，ARGV[1] 发放间隔（微秒），ARGV[2] 突发数量，ARGV[3] 当前时间戳（微秒），ARGV[4] 许可数量
+    // 返回 {是否通过（1 通过，0 不通过）, 剩余次数, 不通过时需要等待的时间（毫秒）}
+    private final static String GCRA_GET_PERMISSION = "local key = KEYS[1]; "
+            + "local interval = tonumber(ARGV[1]); "
+            + "local burst = tonumber(ARGV[2]); "
+            + "local now = tonumber(ARGV[3]); "
+            + "local tat = math.max(tonumber(redis.call('get', key) or '0'), now); "
+            + "local newTat = tat + tonumber(ARGV[4]) * interval; "
+            + "local allowAt = newTat - burst * interval; "
+            + "if (now < allowAt) then "
+            + "    return {0, math.max(0, math.floor((now - tat + burst * interval) / interval)), math.ceil((allowAt - now) / 1000)}; "
+            + "end; "
+            + "redis.call('set', key, string.format('%.0f', newTat), 'px', math.ceil((newTat - now) / 1000) + 1); "
+            + "return {1, math.floor((now - allowAt) / interval), 0};";
+
+    // 批量预取许可 lua 脚本，固定窗口算法实现
+    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间（毫秒），ARGV[3] 预取数量
+    // 返回 {预取到的许可数量, 许可有效期（毫秒）}，预取不到许可时有效期为当前窗口剩余时间
+    private final static String LEASE_PERMISSION = "local key = KEYS[1]; "
+            + "local limitForPeriod = tonumber(ARGV[1]); "
+            + "local limitRefreshPeriod = tonumber(ARGV[2]); "
+            + "local current = tonumber(redis.call('get', key) or '0'); "
+            + "local granted = math.min(limitForPeriod - current, tonumber(ARGV[3])); "
+            + "if (granted <= 0) then "
+            + "    return {0, redis.call('pttl', key)}; "
+            + "end; "
+            + "redis.call('incrby', key, granted); "
+            + "if (current == 0) then "
+            + "    redis.call('pexpire', key, limitRefreshPeriod); "
+            + "end; "
+            + "return {granted, redis.call('pttl', key)};";
+
+    // 批量预取许可 lua 脚本，滑动窗口算法实现
+    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4] 唯一标识，ARGV[5] 预取数量
+    // 返回 {预取到的许可数量, 许可有效期（毫秒）}，预取不到许可时有效期为最早一次通过记录的剩余时间
+    private final static String SLIDING_WINDOW_LEASE_PERMISSION = "local key = KEYS[1]; "
+            + "local limitForPeriod = tonumber(ARGV[1]); "
+            + "local limitRefreshPeriod = tonumber(ARGV[2]); "
+            + "local now = tonumber(ARGV[3]); "
+            + "local expired = now - limitRefreshPeriod; "
+            + "redis.call('zremrangebyscore', key, 0, expired); "
+            + "local current = tonumber(redis.call('zcard', key)); "
+            + "local granted = math.min(limitForPeriod - current, tonumber(ARGV[5])); "
+            + "if (granted <= 0) then "
+            + "    local head = redis.call('zrange', key, 0, 0, 'withscores'); "
+            + "    if (head[2] == nil) then "
+            + "        return {0, limitRefreshPeriod}; "
+            + "    end; "
+            + "    return {0, tonumber(head[2]) - expired}; "
+            + "end; "
+            + "for i = 1, granted do "
+            + "    redis.call('zadd', key, now, ARGV[4] .. ':' .. i); "
+            + "end; "
+            + "redis.call('pexpire', key, limitRefreshPeriod + 100); "
+            + "return {granted, limitRefreshPeriod};";
+
+    // 批量预取许可 lua 脚本，滑动窗口计数器算法实现
+    // KEYS[1] 限流名称，ARGV[1] 限流容量，ARGV[2] 限流区间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4] 桶时长（毫秒），ARGV[5] 预取数量
+    // 返回 {预取到的许可数量, 许可有效期（毫秒）}，
+    // 预取不到许可时有效期为最早一个桶移出窗口到足以空出一个许可的剩余时间
+    private final static String SLIDING_WINDOW_COUNTER_LEASE_PERMISSION = "local key = KEYS[1]; "
+            + "local limitForPeriod = tonumber(ARGV[1]); "
+            + "local limitRefreshPeriod = tonumber(ARGV[2]); "
+            + "local now = tonumber(ARGV[3]); "
+            + "local bucketSize = tonumber(ARGV[4]); "
+            + "local windowStart = now - limitRefreshPeriod; "
+            + "local current = 0; "
+            + "local headStart = nil; "
+            + "local headCount = 0; "
+            + "local counters = redis.call('hgetall', key); "
+            + "for i = 1, #counters, 2 do "
+            + "    local bucketStart = tonumber(counters[i]) * bucketSize; "
+            + "    local count = tonumber(counters[i + 1]); "
+            + "    if (bucketStart + bucketSize <= windowStart) then "
+            + "        redis.call('hdel', key, counters[i]); "
+            + "    else "
+            + "        if (bucketStart < windowStart) then "
+            + "            current = current + count * (bucketStart + bucketSize - windowStart) / bucketSize; "
+            + "        else "
+            + "            current = current + count; "
+            + "        end; "
+            + "        if (headStart == nil or bucketStart < headStart) then "
+            + "            headStart = bucketStart; "
+            + "            headCount = count; "
+            + "        end; "
+            + "    end; "
+            + "end; "
+            + "local granted = math.min(limitForPeriod - math.floor(current), tonumber(ARGV[5])); "
+            + "if (granted <= 0) then "
+            + "    if (headStart == nil) then "
+            + "        return {0, limitRefreshPeriod}; "
+            + "    end; "
+            + "    local headEnd = headStart + bucketSize - windowStart; "
+            + "    local wait = math.max(0, headStart - windowStart) + math.ceil((math.floor(current) - limitForPeriod + 1) * bucketSize / headCount); "
+            + "    return {0, math.min(wait, headEnd)}; "
+            + "end; "
+            + "redis.call('hincrby', key, math.floor(now / bucketSize), granted); "
+            + "redis.call('pexpire', key, limitRefreshPeriod + bucketSize); "
+            + "return {granted, limitRefreshPeriod};";
+
+    // 批量预取许可 lua 脚本，GCRA 算法实现
+    // KEYS[1] 限流名称，ARGV[1] 发放间隔（微秒），ARGV[2] 突发数量，ARGV[3] 当前时间戳（微秒），ARGV[4] 预取数量
+    // 返回 {预取到的许可数量, 许可有效期（毫秒）}，许可有效期为预取到的许可按发放间隔发放完所需时间，
+    // 预取不到许可时有效期为下一个许可的等待时间
+    private final static String GCRA_LEASE_PERMISSION = "local key = KEYS[1]; "
+            + "local interval = tonumber(ARGV[1]); "
+            + "local burst = tonumber(ARGV[2]); "
+            + "local now = tonumber(ARGV[3]); "
+            + "local tat = math.max(tonumber(redis.call('get', key) or '0'), now); "
+            + "local available = math.floor((now - tat + burst * interval) / interval); "
+            + "local granted = math.min(available, tonumber(ARGV[4])); "
+            + "if (granted <= 0) then "
+            + "    return {0, math.ceil((tat + interval - burst * interval - now) / 1000)}; "
+            + "end; "
+            + "local newTat = tat + granted * interval; "
+            + "redis.call('set', key, string.format('%.0f', newTat), 'px', math.ceil((newTat - now) / 1000) + 1); "
+            + "return {granted, math.ceil(granted * interval / 1000)};";
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> GET_PERMISSION_SCRIPT = new DefaultRedisScript<>(GET_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> SLIDING_WINDOW_GET_PERMISSION_SCRIPT = new DefaultRedisScript<>(SLIDING_WINDOW_GET_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> SLIDING_WINDOW_COUNTER_GET_PERMISSION_SCRIPT = new DefaultRedisScript<>(SLIDING_WINDOW_COUNTER_GET_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> GCRA_GET_PERMISSION_SCRIPT = new DefaultRedisScript<>(GCRA_GET_PERMISSION, List.class);
+
+    // 批量限流验证 lua 脚本，把各限流算法的限流验证脚本包装为函数，按限流算法类型依次调用
+    // KEYS[i] 第 i 个限流名称，ARGV 依次为每个限流器的 {限流算法类型序号, 参数个数 n, n 个限流验证脚本参数}
+    // 返回每个限流器的限流验证脚本返回值
+    private final static String BATCH_GET_PERMISSION = buildBatchGetPermission();
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> BATCH_GET_PERMISSION_SCRIPT = new DefaultRedisScript<>(BATCH_GET_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> LEASE_PERMISSION_SCRIPT = new DefaultRedisScript<>(LEASE_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> SLIDING_WINDOW_LEASE_PERMISSION_SCRIPT = new DefaultRedisScript<>(SLIDING_WINDOW_LEASE_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> SLIDING_WINDOW_COUNTER_LEASE_PERMISSION_SCRIPT = new DefaultRedisScript<>(SLIDING_WINDOW_COUNTER_LEASE_PERMISSION, List.class);
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> GCRA_LEASE_PERMISSION_SCRIPT = new DefaultRedisScript<>(GCRA_LEASE_PERMISSION, List.class);
+
+    private static String buildBatchGetPermission() {
+        StringBuilder script = new StringBuilder("local scripts = {}; ");
+        for (RateLimiterType type : RateLimiterType.values()) {
+            script.append("scripts[").append(type.ordinal()).append("] = function(KEYS, ARGV) ")
+                    .append(getPermissionScript(type).getScriptAsString()).append(" end; ");
+        }
+        script.append("local results = {}; ")
+                .append("local index = 1; ")
+                .append("for i = 1, #KEYS do ")
+                .append("    local count = tonumber(ARGV[index + 1]); ")
+                .append("    local args = {}; ")
+                .append("    for j = 1, count do ")
+                .append("        args[j] = ARGV[index + 1 + j]; ")
+                .append("    end; ")
+                .append("    results[i] = scripts[tonumber(ARGV[index])]({KEYS[i]}, args); ")
+                .append("    index = index + 2 + count; ")
+                .append("end; ")
+                .append("return results;");
+        return script.toString();
+    }
+
+    private RateLimiter(RateLimiterConfig config, RedisTemplate<String, Object> redisTemplate, Executor executor, MeterRegistry meterRegistry,
+            RedisCircuitBreaker circuitBreaker) {
         this.config = config;
         this.redisTemplate = redisTemplate;
+        this.executor = executor;
+        this.metrics = new RateLimiterMetrics(config, meterRegistry);
+        this.cluster = ClusterKeys.isCluster(redisTemplate);
+        this.circuitBreaker = circuitBreaker;
+        if (circuitBreaker != null) {
+            int instances = circuitBreaker.getInstances();
+            int burst = config.getBurst() > 0 ? config.getBurst() : config.getLimitForPeriod();
+            this.fallback = new LocalRateLimiter(share(config.getLimitForPeriod(), instances), config.getLimitRefreshPeriod(), share(burst, instances));
+        }
     }
 
     /**
      * 获取频率限流器实例
      * @param config 频率限流器配置信息
      * @param redisTemplate redisTemplate
+     * @param executor 异步 API 执行 redis 命令的线程池
+     * @return 频率限流器实例
+     */
+    public static RateLimiter instance(RateLimiterConfig config, RedisTemplate<String, Object> redisTemplate, Executor executor) {
+        // 没有添加任何注册表的组合注册表，注册的都是空操作指标
+        return instance(config, redisTemplate, executor, new CompositeMeterRegistry());
+    }
+
+    /**
+     * 获取频率限流器实例，并注册监控指标
+     * @param config 频率限流器配置信息
+     * @param redisTemplate redisTemplate
+     * @param executor 异步 API 执行 redis 命令的线程池
+     * @param meterRegistry 监控指标注册表
+     * @return 频率限流器实例
+     */
+    public static RateLimiter instance(RateLimiterConfig config, RedisTemplate<String, Object> redisTemplate, Executor executor, MeterRegistry meterRegistry) {
+        return instance(config, redisTemplate, executor, meterRegistry, null);
+    }
+
+    /**
+     * 获取频率限流器实例，注册监控指标，并在 redis 异常或熔断期间降级为本地限流
+     * @param config 频率限流器配置信息
+     * @param redisTemplate redisTemplate
+     * @param executor 异步 API 执行 redis 命令的线程池
+     * @param meterRegistry 监控指标注册表
+     * @param circuitBreaker redis 熔断器，为 null 时不降级
      * @return 频率限流器实例
      */
-    public static RateLimiter instance(RateLimiterConfig config, RedisTemplate<String, Object> redisTemplate) {
+    public static RateLimiter instance(RateLimiterConfig config, RedisTemplate<String, Object> redisTemplate, Executor executor, MeterRegistry meterRegistry,
+            RedisCircuitBreaker circuitBreaker) {
         Assert.notNull(config, "config 不能为空");
         Assert.notNull(redisTemplate, "redisTemplate 不能为空");
-        RateLimiter rateLimiter = new RateLimiter(config, redisTemplate);
+        Assert.notNull(executor, "executor 不能为空");
+        Assert.notNull(meterRegistry, "meterRegistry 不能为空");
+        int shards = config.getShards();
+        Assert.isTrue(shards > 0, "shards 必须大于 0");
+        if (shards > 1) {
+            Assert.isTrue(config.getLimitForPeriod() >= shards, "limitForPeriod 不能小于 shards");
+            Assert.isTrue(config.getBurst() == 0 || config.getBurst() >= shards, "burst 不能小于 shards");
+            Assert.isTrue(config.getName().indexOf('{') < 0 && config.getName().indexOf('}') < 0, "分片限流器名称不能包含 hash tag");
+        }
+        RateLimiter rateLimiter = new RateLimiter(config, redisTemplate, executor, meterRegistry, circuitBreaker);
         return rateLimiter;
     }
 
+    /**
+     * 获取频率限流器配置信息
+     * @return 频率限流器配置信息
+     */
+    public RateLimiterConfig getConfig() {
+        return config;
+    }
+
     /**
      * 限流控制判断
      * @return 是否通过限流控制
      */
     public boolean getPermission() {
+        return getPermission(1);
+    }
+
+    /**
+     * 限流控制判断，一次获取多个许可，全部获取成功才通过
+     * @param permits 许可数量，不能大于限流容量（GCRA 算法为突发数量）
+     * @return 是否通过限流控制
+     */
+    public boolean getPermission(int permits) {
+        return getPermissionResult(permits).isPermitted();
+    }
+
+    /**
+     * 限流控制判断，返回剩余次数及不通过时需要等待的时间
+     * @return 限流控制判断结果
+     */
+    public RateLimiterResult getPermissionResult() {
+        return getPermissionResult(1);
+    }
+
+    /**
+     * 限流控制判断，一次获取多个许可，返回剩余次数及不通过时需要等待的时间
+     * @param permits 许可数量，不能大于限流容量（GCRA 算法为突发数量）
+     * @return 限流控制判断结果
+     */
+    public RateLimiterResult getPermissionResult(int permits) {
+        checkPermits(permits);
+        if (config.getLeaseSize() > 1) {
+            return metrics.record(getLeasedPermission(permits));
+        }
+        if (!tryAcquireRedis()) {
+            return metrics.record(fallback(permits));
+        }
+        int shard = nextShard();
+        List<String> keys = new ArrayList<>();
+        keys.add(getKey(shard));
+        long start = System.nanoTime();
+        try {
+            List<?> result = redisTemplate.execute(getPermissionScript(config.getType()), keys, getPermissionArgs(shard, permits));
+            metrics.recordPermissionScript(start);
+            onRedisSuccess(start);
+            return metrics.record(toResult(result));
+        } catch (Exception ex) {
+            onRedisError();
+            logger.error(ex.getMessage(), ex);
+        }
+        return metrics.record(fallback(permits));
+    }
+
+    /**
+     * 获取许可，最长等待 {@link RateLimiterConfig#getTimeoutDuration()}
+     * @return 是否获取成功
+     */
+    public boolean acquire() {
+        return acquire(1);
+    }
+
+    /**
+     * 获取多个许可，最长等待 {@link RateLimiterConfig#getTimeoutDuration()}
+     * @param permits 许可数量，不能大于限流容量（GCRA 算法为突发数量）
+     * @return 是否获取成功
+     */
+    public boolean acquire(int permits) {
+        return acquire(permits, config.getTimeoutDuration());
+    }
+
+    /**
+     * 获取多个许可，不通过时按限流脚本返回的最早可通过时间休眠后重试，不轮询 redis
+     * <p>
+     * 最早可通过时间已超出等待时间时立即放弃，不做无意义的等待；
+     * 等待期间被中断时恢复中断标识并返回 false
+     * @param permits 许可数量，不能大于限流容量（GCRA 算法为突发数量）
+     * @param timeout 最长等待时间
+     * @return 是否获取成功
+     */
+    public boolean acquire(int permits, Duration timeout) {
+        Assert.notNull(timeout, "timeout 不能为空");
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            RateLimiterResult result = getPermissionResult(permits);
+            if (result.isPermitted()) {
+                metrics.acquire(start, attempts, true);
+                return true;
+            }
+            long wait = result.getRetryAfter().isZero() ? TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL) : result.getRetryAfter().toNanos();
+            if (System.nanoTime() + wait > deadline) {
+                metrics.acquire(start, attempts, false);
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                metrics.acquire(start, attempts, false);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 异步限流控制判断
+     * @return 是否通过限流控制
+     */
+    public CompletableFuture<Boolean> getPermissionAsync() {
+        return getPermissionAsync(1);
+    }
+
+    /**
+     * 异步限流控制判断，一次获取多个许可，全部获取成功才通过
+     * @param permits 许可数量，不能大于限流容量（GCRA 算法为突发数量）
+     * @return 是否通过限流控制
+     */
+    public CompletableFuture<Boolean> getPermissionAsync(int permits) {
+        return getPermissionResultAsync(permits).thenApply(RateLimiterResult::isPermitted);
+    }
+
+    /**
+     * 异步限流控制判断，一次获取多个许可，返回剩余次数及不通过时需要等待的时间
+     * @param permits 许可数量，不能大于限流容量（GCRA 算法为突发数量）
+     * @return 限流控制判断结果
+     */
+    public CompletableFuture<RateLimiterResult> getPermissionResultAsync(int permits) {
+        checkPermits(permits);
+        if (config.getLeaseSize() > 1) {
+            Lease current = lease;
+            if (current != null && current.tryAcquire(permits)) {
+                return CompletableFuture.completedFuture(metrics.record(current.permitted()));
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> getPermissionResult(permits), executor);
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        return CompletableFuture.completedFuture(metrics.record(new RateLimiterResult(false, 0, Duration.ZERO)));
+    }
+
+    /**
+     * 批量限流控制判断，多个限流器的判断合并在一次脚本调用中执行，只需要一次网络往返
+     * <p>
+     * 各限流器相互独立判断，不保证全部通过或全部不通过：部分限流器不通过时，其他限流器已通过的许可不会归还；
+     * 批量预取模式的限流器使用本地预取的许可，不参与脚本调用。
+     * 集群模式下脚本的键必须在同一个槽，按槽分组，每组一次网络往返。
+     * 所有限流器应来自同一个 {@code HuaGuoShanRedis}
+     * @param rateLimiters 限流器
+     * @param permits 每个限流器获取的许可数量
+     * @return 与 {@code rateLimiters} 顺序一致的限流控制判断结果
+     */
+    public static List<RateLimiterResult> getPermissions(List<RateLimiter> rateLimiters, int permits) {
+        Assert.notEmpty(rateLimiters, "rateLimiters 不能为空");
+        RateLimiterResult[] results = new RateLimiterResult[rateLimiters.size()];
+        String[] keys = new String[results.length];
+        Object[][] args = new Object[results.length][];
+        List<Integer> indexes = new ArrayList<>();
+        for (int index = 0; index < results.length; index++) {
+            RateLimiter rateLimiter = rateLimiters.get(index);
+            rateLimiter.checkPermits(permits);
+            if (rateLimiter.config.getLeaseSize() > 1) {
+                results[index] = rateLimiter.getLeasedPermission(permits);
+                continue;
+            }
+            int shard = rateLimiter.nextShard();
+            keys[index] = rateLimiter.getKey(shard);
+            args[index] = rateLimiter.getPermissionArgs(shard, permits);
+            indexes.add(index);
+        }
+        RateLimiter first = rateLimiters.get(0);
+        if (!indexes.isEmpty() && !first.tryAcquireRedis()) {
+            for (int index : indexes) {
+                results[index] = rateLimiters.get(index).fallback(permits);
+            }
+            indexes.clear();
+        }
+        Collection<List<Integer>> groups = first.cluster ? ClusterKeys.groupBySlot(indexes, index -> keys[index]) : Collections.singletonList(indexes);
+        for (List<Integer> group : groups) {
+            if (group.isEmpty()) {
+                continue;
+            }
+            List<String> groupKeys = new ArrayList<>(group.size());
+            List<Object> groupArgs = new ArrayList<>();
+            for (int index : group) {
+                groupKeys.add(keys[index]);
+                groupArgs.add(rateLimiters.get(index).config.getType().ordinal());
+                groupArgs.add(args[index].length);
+                groupArgs.addAll(Arrays.asList(args[index]));
+            }
+            List<?> replies = null;
+            long start = System.nanoTime();
+            try {
+                replies = first.redisTemplate.execute(BATCH_GET_PERMISSION_SCRIPT, groupKeys, groupArgs.toArray());
+                first.onRedisSuccess(start);
+            } catch (Exception ex) {
+                first.onRedisError();
+                first.logger.error(ex.getMessage(), ex);
+            }
+            for (int reply = 0; reply < group.size(); reply++) {
+                int index = group.get(reply);
+                results[index] = replies == null ? rateLimiters.get(index).fallback(permits) : toResult((List<?>) replies.get(reply));
+            }
+        }
+        for (int index = 0; index < results.length; index++) {
+            rateLimiters.get(index).metrics.record(results[index]);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 限流算法对应的限流验证脚本
+     * @param type 限流算法类型
+     * @return 限流验证脚本
+     */
+    @SuppressWarnings("rawtypes")
+    private static RedisScript<List> getPermissionScript(RateLimiterType type) {
+        if (RateLimiterType.SLIDINGWINDOW.equals(type)) {
+            return SLIDING_WINDOW_GET_PERMISSION_SCRIPT;
+        } else if (RateLimiterType.SLIDINGWINDOWCOUNTER.equals(type)) {
+            return SLIDING_WINDOW_COUNTER_GET_PERMISSION_SCRIPT;
+        } else if (RateLimiterType.GCRA.equals(type)) {
+            return GCRA_GET_PERMISSION_SCRIPT;
+        }
+        return GET_PERMISSION_SCRIPT;
+    }
+
+    /**
+     * 当前限流算法的限流验证脚本参数
+     * @param shard 分片序号
+     * @param permits 许可数量
+     * @return 脚本参数
+     */
+    private Object[] getPermissionArgs(int shard, int permits) {
+        RateLimiterType type = config.getType();
+        if (RateLimiterType.SLIDINGWINDOW.equals(type)) {
+            return new Object[] { getLimitForPeriod(shard), config.getLimitRefreshPeriod().toMillis(), System.currentTimeMillis(), UUID.randomUUID().toString(), permits };
+        } else if (RateLimiterType.SLIDINGWINDOWCOUNTER.equals(type)) {
+            return new Object[] { getLimitForPeriod(shard), config.getLimitRefreshPeriod().toMillis(), System.currentTimeMillis(), getBucketSize(), permits };
+        } else if (RateLimiterType.GCRA.equals(type)) {
+            return new Object[] { getEmissionInterval(shard), getBurst(shard), System.currentTimeMillis() * 1000, permits };
+        }
+        return new Object[] { getLimitForPeriod(shard), config.getLimitRefreshPeriod().toMillis(), permits };
+    }
+
+    /**
+     * 校验许可数量，超过限流容量（分片时为最小分片的容量）的请求永远不可能通过
+     * @param permits 许可数量
+     */
+    private void checkPermits(int permits) {
+        int shard = config.getShards() - 1;
+        int capacity = RateLimiterType.GCRA.equals(config.getType()) ? getBurst(shard) : getLimitForPeriod(shard);
+        Assert.isTrue(permits > 0 && permits <= capacity, "permits 必须大于 0 且不能大于 " + capacity);
+    }
+
+    private static RateLimiterResult toResult(List<?> result) {
+        return new RateLimiterResult(((Number) result.get(0)).intValue() == 1, ((Number) result.get(1)).longValue(),
+                Duration.ofMillis(((Number) result.get(2)).longValue()));
+    }
+
+    /**
+     * 批量预取模式下的限流控制判断，优先使用本地预取的许可
+     * @param permits 许可数量
+     * @return 限流控制判断结果
+     */
+    private RateLimiterResult getLeasedPermission(int permits) {
+        Lease current = lease;
+        if (current != null && current.tryAcquire(permits)) {
+            return current.permitted();
+        }
+        synchronized (this) {
+            // 等待期间其他线程可能已经重新预取
+            if (lease != current) {
+                current = lease;
+                if (current.tryAcquire(permits)) {
+                    return current.permitted();
+                }
+            }
+            if (current != null && !current.isExpired() && current.isDenied()) {
+                return current.denied();
+            }
+            current = leasePermission(Math.max(permits, config.getLeaseSize()));
+            if (current == null) {
+                return fallback(permits);
+            }
+            lease = current;
+            if (current.tryAcquire(permits)) {
+                return current.permitted();
+            }
+            return current.isDenied() ? current.denied() : new RateLimiterResult(false, current.permits.get(), Duration.ZERO);
+        }
+    }
+
+    /**
+     * 向 redis 批量预取许可
+     * @param leaseSize 预取数量
+     * @return 预取到的许可，异常或熔断期间返回 null
+     */
+    private Lease leasePermission(int leaseSize) {
+        if (!tryAcquireRedis()) {
+            return null;
+        }
+        int shard = nextShard();
         List<String> keys = new ArrayList<>();
-        keys.add(config.getName());
+        keys.add(getKey(shard));
         try {
-            Long result;
+            List<?> result;
             RateLimiterType type = config.getType();
+            long now = System.currentTimeMillis();
+            long start = System.nanoTime();
             if (RateLimiterType.SLIDINGWINDOW.equals(type)) {
-                RedisScript<Long> luaScript = new DefaultRedisScript<>(SLIDING_WINDOW_GET_PERMISSION, Long.class);
-                result = redisTemplate.execute(luaScript, keys, config.getLimitForPeriod(), config.getLimitRefreshPeriod().toMillis(), System.currentTimeMillis(), UUID.randomUUID().toString());
+                result = redisTemplate.execute(SLIDING_WINDOW_LEASE_PERMISSION_SCRIPT, keys, getLimitForPeriod(shard), config.getLimitRefreshPeriod().toMillis(), now, UUID.randomUUID().toString(), leaseSize);
+            } else if (RateLimiterType.SLIDINGWINDOWCOUNTER.equals(type)) {
+                result = redisTemplate.execute(SLIDING_WINDOW_COUNTER_LEASE_PERMISSION_SCRIPT, keys, getLimitForPeriod(shard), config.getLimitRefreshPeriod().toMillis(), now, getBucketSize(), leaseSize);
+            } else if (RateLimiterType.GCRA.equals(type)) {
+                result = redisTemplate.execute(GCRA_LEASE_PERMISSION_SCRIPT, keys, getEmissionInterval(shard), getBurst(shard), now * 1000, leaseSize);
             } else {
-                RedisScript<Long> luaScript = new DefaultRedisScript<>(GET_PERMISSION, Long.class);
-                result = redisTemplate.execute(luaScript, keys, config.getLimitForPeriod(), config.getLimitRefreshPeriod().toMillis());
+                result = redisTemplate.execute(LEASE_PERMISSION_SCRIPT, keys, getLimitForPeriod(shard), config.getLimitRefreshPeriod().toMillis(), leaseSize);
             }
-            return result != 0;
+            metrics.recordLeaseScript(start);
+            onRedisSuccess(start);
+            int granted = ((Number) result.get(0)).intValue();
+            long ttl = Math.max(0, ((Number) result.get(1)).longValue());
+            return new Lease(granted, now + ttl);
         } catch (Exception ex) {
+            onRedisError();
             logger.error(ex.getMessage(), ex);
         }
-        return false;
+        return null;
+    }
+
+    /**
+     * 是否允许访问 redis，熔断打开期间返回 false
+     * @return 是否允许访问 redis
+     */
+    private boolean tryAcquireRedis() {
+        return circuitBreaker == null || circuitBreaker.tryAcquirePermission();
+    }
+
+    private void onRedisSuccess(long start) {
+        if (circuitBreaker != null) {
+            circuitBreaker.onSuccess(start);
+        }
+    }
+
+    private void onRedisError() {
+        if (circuitBreaker != null) {
+            circuitBreaker.onError();
+        }
+    }
+
+    /**
+     * redis 异常或熔断期间的限流控制判断，启用降级时使用本地限流器，否则不通过
+     * @param permits 许可数量
+     * @return 限流控制判断结果
+     */
+    private RateLimiterResult fallback(int permits) {
+        return fallback == null ? new RateLimiterResult(false, 0, Duration.ZERO) : fallback.getPermissionResult(permits);
+    }
+
+    /**
+     * 按实例数量平分，向上取整
+     * @param total 总数
+     * @param instances 实例数量
+     * @return 每个实例的份额
+     */
+    private static int share(int total, int instances) {
+        return Math.max(1, (total + instances - 1) / instances);
+    }
+
+    /**
+     * 滑动窗口计数器算法的桶时长
+     * @return 桶时长，毫秒
+     */
+    private long getBucketSize() {
+        return Math.max(1, config.getLimitRefreshPeriod().toMillis() / config.getWindowBuckets());
+    }
+
+    /**
+     * 随机选择一个分片，不分片时始终为 0
+     * @return 分片序号
+     */
+    private int nextShard() {
+        int shards = config.getShards();
+        return shards == 1 ? 0 : ThreadLocalRandom.current().nextInt(shards);
+    }
+
+    /**
+     * 分片的键名，不分片时为限流器名称
+     * @param shard 分片序号
+     * @return 键名
+     */
+    private String getKey(int shard) {
+        return config.getShards() == 1 ? config.getName() : ClusterKeys.shard(config.getName(), shard);
+    }
+
+    /**
+     * 分片的限流容量
+     * @param shard 分片序号
+     * @return 限流容量
+     */
+    private int getLimitForPeriod(int shard) {
+        return split(config.getLimitForPeriod(), shard);
+    }
+
+    /**
+     * 按分片平分，余数分给前面的分片
+     * @param total 总数
+     * @param shard 分片序号
+     * @return 分片的数量
+     */
+    private int split(int total, int shard) {
+        int shards = config.getShards();
+        return total / shards + (shard < total % shards ? 1 : 0);
+    }
+
+    /**
+     * GCRA 算法分片的发放间隔
+     * @param shard 分片序号
+     * @return 发放间隔，微秒
+     */
+    private double getEmissionInterval(int shard) {
+        return config.getLimitRefreshPeriod().toNanos() / 1000.0 / getLimitForPeriod(shard);
+    }
+
+    /**
+     * GCRA 算法分片的突发数量，未配置时与分片的限流容量相同
+     * @param shard 分片序号
+     * @return 突发数量
+     */
+    private int getBurst(int shard) {
+        return config.getBurst() > 0 ? split(config.getBurst(), shard) : getLimitForPeriod(shard);
+    }
+
+    /**
+     * 本地预取的许可
+     */
+    private static class Lease {
+
+        /** 剩余许可数量 */
+        private final AtomicInteger permits;
+
+        /** 过期时间戳（毫秒） */
+        private final long expireAt;
+
+        /** 预取时没有获取到许可 */
+        private final boolean denied;
+
+        private Lease(int permits, long expireAt) {
+            this.permits = new AtomicInteger(permits);
+            this.expireAt = expireAt;
+            this.denied = permits == 0;
+        }
+
+        private boolean tryAcquire(int count) {
+            if (isExpired()) {
+                return false;
+            }
+            while (true) {
+                int available = permits.get();
+                if (available < count) {
+                    return false;
+                }
+                if (permits.compareAndSet(available, available - count)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expireAt;
+        }
+
+        private boolean isDenied() {
+            return denied;
+        }
+
+        private RateLimiterResult permitted() {
+            return new RateLimiterResult(true, permits.get(), Duration.ZERO);
+        }
+
+        private RateLimiterResult denied() {
+            return new RateLimiterResult(false, 0, Duration.ofMillis(Math.max(0, expireAt - System.currentTimeMillis())));
+        }
+
     }
 
 }
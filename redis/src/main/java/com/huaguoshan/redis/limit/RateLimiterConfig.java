@@ -2,19 +2,22 @@ package com.huaguoshan.redis.limit;
 
 import java.time.Duration;
 
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * 频率限流器配置信息
  * <p>
- * 指定期间 {@code limitRefreshPeriod} 内限制总通过次数 {@code limitForPeriod}
+ * 指定期间 {@code limitRefreshPeriod} 内限制总通过次数 {@code limitForPeriod}。
+ * 配置信息相同的限流器在 {@code HuaGuoShanRedis} 中共享同一个实例
  * 
  * @author gaox
  *
  */
 @Getter
 @Setter
+@EqualsAndHashCode
 public class RateLimiterConfig {
 
     // 限流器名称
@@ -29,6 +32,37 @@ public class RateLimiterConfig {
     // 限流算法类型
     private RateLimiterType type = RateLimiterType.FIXWINDOW;
 
-//    private Duration timeoutDuration;
+    // 滑动窗口计数器算法的桶数量，桶越多越接近精确的滑动窗口
+    private int windowBuckets = 10;
+
+    // GCRA 算法允许的突发数量，发放速率为 limitForPeriod / limitRefreshPeriod，0 表示与限流容量相同
+    private int burst;
+
+    // 批量预取许可数量，大于 1 时每次向 redis 预取一批许可在本地发放
+    private int leaseSize = 1;
+
+    // 分片数量，大于 1 时限流容量（及 GCRA 突发数量）平分到多个键，分布到 redis 集群的不同槽
+    private int shards = 1;
+
+    // 获取许可最长等待时间，acquire 未指定等待时间时使用，默认不等待
+    private Duration timeoutDuration = Duration.ZERO;
+
+    /**
+     * 复制配置信息，限流器持有副本，创建之后调用方修改配置信息不影响限流器
+     * @return 配置信息副本
+     */
+    public RateLimiterConfig copy() {
+        RateLimiterConfig config = new RateLimiterConfig();
+        config.setName(name);
+        config.setLimitForPeriod(limitForPeriod);
+        config.setLimitRefreshPeriod(limitRefreshPeriod);
+        config.setType(type);
+        config.setWindowBuckets(windowBuckets);
+        config.setBurst(burst);
+        config.setLeaseSize(leaseSize);
+        config.setShards(shards);
+        config.setTimeoutDuration(timeoutDuration);
+        return config;
+    }
 
 }
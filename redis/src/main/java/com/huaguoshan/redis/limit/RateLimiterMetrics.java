@@ -0,0 +1,94 @@
+package com.huaguoshan.redis.limit;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 单个限流器的监控指标，按限流名称和限流算法打标签
+ * <p>
+ * 指标在创建限流器实例时注册，限流判断时只记录数值，不查找指标
+ * <ul>
+ * <li>huaguoshan.ratelimiter.permission：限流判断次数，result 为 permitted 或 denied</li>
+ * <li>huaguoshan.ratelimiter.acquire：等待获取许可耗时，result 为 acquired 或 failed</li>
+ * <li>huaguoshan.ratelimiter.retries：每次等待获取许可的重试次数</li>
+ * <li>huaguoshan.redis.script：限流脚本往返耗时，script 为 permission 或 lease</li>
+ * </ul>
+ *
+ * @author gaox
+ */
+class RateLimiterMetrics {
+
+    /** 通过次数 */
+    private Counter permitted;
+
+    /** 不通过次数 */
+    private Counter denied;
+
+    /** 等待获取成功耗时 */
+    private Timer acquired;
+
+    /** 等待获取失败耗时 */
+    private Timer failed;
+
+    /** 重试次数 */
+    private DistributionSummary retries;
+
+    /** 限流验证脚本耗时 */
+    private Timer permissionScript;
+
+    /** 批量预取脚本耗时 */
+    private Timer leaseScript;
+
+    RateLimiterMetrics(RateLimiterConfig config, MeterRegistry registry) {
+        String name = config.getName();
+        String type = config.getType().name();
+        permitted = Counter.builder("huaguoshan.ratelimiter.permission").description("限流判断次数")
+                .tag("name", name).tag("type", type).tag("result", "permitted").register(registry);
+        denied = Counter.builder("huaguoshan.ratelimiter.permission").description("限流判断次数")
+                .tag("name", name).tag("type", type).tag("result", "denied").register(registry);
+        acquired = Timer.builder("huaguoshan.ratelimiter.acquire").description("等待获取许可耗时")
+                .tag("name", name).tag("type", type).tag("result", "acquired").register(registry);
+        failed = Timer.builder("huaguoshan.ratelimiter.acquire").description("等待获取许可耗时")
+                .tag("name", name).tag("type", type).tag("result", "failed").register(registry);
+        retries = DistributionSummary.builder("huaguoshan.ratelimiter.retries").description("等待获取许可的重试次数")
+                .tag("name", name).tag("type", type).register(registry);
+        permissionScript = Timer.builder("huaguoshan.redis.script").description("lua 脚本往返耗时")
+                .tag("name", name).tag("type", type).tag("script", "permission").register(registry);
+        leaseScript = Timer.builder("huaguoshan.redis.script").description("lua 脚本往返耗时")
+                .tag("name", name).tag("type", type).tag("script", "lease").register(registry);
+    }
+
+    /**
+     * 记录限流判断结果
+     * @param result 限流控制判断结果
+     * @return 限流控制判断结果
+     */
+    RateLimiterResult record(RateLimiterResult result) {
+        (result.isPermitted() ? permitted : denied).increment();
+        return result;
+    }
+
+    /**
+     * 记录等待获取许可结果
+     * @param startNanos 开始获取时间，纳秒
+     * @param attempts 尝试次数
+     * @param success 是否获取成功
+     */
+    void acquire(long startNanos, int attempts, boolean success) {
+        (success ? acquired : failed).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        retries.record(Math.max(0, attempts - 1));
+    }
+
+    void recordPermissionScript(long startNanos) {
+        permissionScript.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordLeaseScript(long startNanos) {
+        leaseScript.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+}
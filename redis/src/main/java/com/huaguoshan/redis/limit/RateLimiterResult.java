@@ -0,0 +1,33 @@
+package com.huaguoshan.redis.limit;
+
+import java.time.Duration;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 频率限流器限流控制判断结果
+ * 
+ * @author gaox
+ *
+ */
+@Getter
+@ToString
+public class RateLimiterResult {
+
+    // 是否通过限流控制
+    private final boolean permitted;
+
+    // 剩余可通过次数，批量预取模式下为本地剩余许可数量
+    private final long remaining;
+
+    // 不通过时，距离下一次可能通过需要等待的时间
+    private final Duration retryAfter;
+
+    public RateLimiterResult(boolean permitted, long remaining, Duration retryAfter) {
+        this.permitted = permitted;
+        this.remaining = remaining;
+        this.retryAfter = retryAfter;
+    }
+
+}
@@ -11,7 +11,13 @@ public enum RateLimiterType {
     /** 固定窗口 */
     FIXWINDOW,
 
-    /** 滑动窗口 */
-    SLIDINGWINDOW
+    /** 滑动窗口，每次通过记录一个 zset 成员，精确但内存占用与限流容量成正比 */
+    SLIDINGWINDOW,
+
+    /** 滑动窗口计数器，限流区间等分为若干个桶计数，按比例计入窗口起点所在的桶，近似滑动窗口，内存占用只与桶数量有关 */
+    SLIDINGWINDOWCOUNTER,
+
+    /** GCRA（通用信元速率算法），每个 key 只保存一个时间戳，按固定间隔平滑发放，允许配置突发数量 */
+    GCRA
 
 }
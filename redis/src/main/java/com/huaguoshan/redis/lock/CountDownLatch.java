@@ -0,0 +1,190 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+
+/**
+ * 基于 redis 实现的分布式倒计数门闩，用于多个实例的任务汇合
+ * <p>
+ * 计数减到 0 时删除计数并唤醒所有等待者，等待者订阅消息后阻塞，不轮询 redis；
+ * 为应对订阅连接重连期间丢失消息，等待者每隔 {@link #RECHECK_INTERVAL} 毫秒检查一次计数
+ * 
+ * @author gaox
+ */
+public class CountDownLatch {
+
+    // 门闩名称
+    private String name;
+
+    // redisTemplate
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 计数归零消息订阅
+    private LockPubSub pubSub;
+
+    // 等待期间检查计数的间隔，毫秒
+    private final static long RECHECK_INTERVAL = 5000L;
+
+    // 设置计数 lua 脚本
+    // KEYS[1] 门闩名称，ARGV[1] 计数
+    // 计数不存在（未设置或已归零）时设置成功返回 1，否则返回 0
+    private final static String TRY_SET_COUNT = "if (redis.call('exists', KEYS[1]) == 0) then "
+            + "    redis.call('set', KEYS[1], ARGV[1]); "
+            + "    return 1; "
+            + "end; "
+            + "return 0;";
+
+    // 计数减一 lua 脚本
+    // KEYS[1] 门闩名称，KEYS[2] 计数归零消息频道
+    // 计数归零时删除计数并唤醒所有等待者，返回剩余计数
+    private final static String COUNT_DOWN = "if (redis.call('exists', KEYS[1]) == 0) then "
+            + "    return 0; "
+            + "end; "
+            + "local count = redis.call('decr', KEYS[1]); "
+            + "if (count <= 0) then "
+            + "    redis.call('del', KEYS[1]); "
+            + "    redis.call('publish', KEYS[2], '" + LockPubSub.WAKE_ALL_MESSAGE + "'); "
+            + "    return 0; "
+            + "end; "
+            + "return count;";
+
+    // 获取计数 lua 脚本
+    // KEYS[1] 门闩名称
+    private final static String GET_COUNT = "return tonumber(redis.call('get', KEYS[1]) or '0');";
+
+    private final static RedisScript<Long> TRY_SET_COUNT_SCRIPT = new DefaultRedisScript<>(TRY_SET_COUNT, Long.class);
+
+    private final static RedisScript<Long> COUNT_DOWN_SCRIPT = new DefaultRedisScript<>(COUNT_DOWN, Long.class);
+
+    private final static RedisScript<Long> GET_COUNT_SCRIPT = new DefaultRedisScript<>(GET_COUNT, Long.class);
+
+    private CountDownLatch(String name, LockContext context) {
+        this.name = name;
+        this.redisTemplate = context.getRedisTemplate();
+        this.pubSub = context.getPubSub();
+    }
+
+    /**
+     * 获取倒计数门闩实例
+     * @param name 门闩名称
+     * @param context 分布式锁共享组件
+     * @return 倒计数门闩实例
+     */
+    public static CountDownLatch instance(String name, LockContext context) {
+        Assert.notNull(name, "name 不能为空");
+        Assert.notNull(context, "context 不能为空");
+        CountDownLatch latch = new CountDownLatch(name, context);
+        return latch;
+    }
+
+    /**
+     * 设置计数，只有计数不存在（未设置或已归零）时才能设置成功，多个实例同时设置只有一个成功
+     * @param count 计数
+     * @return 是否设置成功
+     */
+    public boolean trySetCount(long count) {
+        Assert.isTrue(count > 0, "count 必须大于 0");
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        Long result = redisTemplate.execute(TRY_SET_COUNT_SCRIPT, keys, count);
+        return result != null && result == 1;
+    }
+
+    /**
+     * 计数减一，归零时唤醒所有等待者
+     * @return 剩余计数
+     */
+    public long countDown() {
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        keys.add(getChannelName());
+        Long result = redisTemplate.execute(COUNT_DOWN_SCRIPT, keys);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * 获取当前计数
+     * @return 当前计数，未设置或已归零返回 0
+     */
+    public long getCount() {
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        Long result = redisTemplate.execute(GET_COUNT_SCRIPT, keys);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * 等待计数归零
+     * @throws InterruptedException 等待期间被中断
+     */
+    public void await() throws InterruptedException {
+        await(-1);
+    }
+
+    /**
+     * 在等待时间内等待计数归零
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return 计数是否已归零
+     * @throws InterruptedException 等待期间被中断
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(Math.max(0, unit.toMillis(timeout)));
+    }
+
+    /**
+     * 订阅计数归零消息并阻塞等待，先订阅再检查计数，不会错过订阅之前发布的消息
+     * @param waitTime 最长等待时间（毫秒），-1 表示一直等待
+     * @return 计数是否已归零
+     * @throws InterruptedException 等待期间被中断
+     */
+    private boolean await(long waitTime) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (getCount() == 0) {
+            return true;
+        }
+        if (waitTime == 0) {
+            return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTime);
+        String channel = getChannelName();
+        LockPubSub.LockEntry entry = pubSub.subscribe(channel);
+        try {
+            while (true) {
+                if (getCount() == 0) {
+                    return true;
+                }
+                long wait = RECHECK_INTERVAL;
+                if (waitTime != -1) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                entry.getLatch().tryAcquire(wait, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            pubSub.unsubscribe(channel, entry);
+        }
+    }
+
+    /**
+     * 获取计数归零消息频道名称
+     * @return 频道名称
+     */
+    private String getChannelName() {
+        return ClusterKeys.derive(ReentrantLock.CHANNEL_PREFIX, name);
+    }
+
+}
@@ -0,0 +1,273 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+
+/**
+ * 基于 redis 实现的许可会过期的分布式信号量，限制所有实例的总并发数
+ * <p>
+ * 每个许可以唯一标识保存在 zset 中，分数为许可的过期时间（redis 服务器时间），
+ * 持有许可的实例异常退出时，许可到期后自动失效，不会泄漏。
+ * 获取不到许可时订阅许可释放消息等待，最长等待到最早一个许可过期，不轮询 redis
+ * 
+ * @author gaox
+ */
+public class ExpirableSemaphore {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    // 信号量名称
+    private String name;
+
+    // 许可总数
+    private int permits;
+
+    // redisTemplate
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 许可释放消息订阅
+    private LockPubSub pubSub;
+
+    // 获取许可异常时，重试等待时间，毫秒
+    private final static long RETRY_INTERVAL = 100L;
+
+    // 获取许可 lua 脚本
+    // KEYS[1] 信号量名称，ARGV[1] 许可总数，ARGV[2] 许可有效期（毫秒），ARGV[3] 许可标识
+    // 先移出已过期的许可，获取成功返回 nil，否则返回最早一个许可的剩余有效期（毫秒）
+    private final static String ACQUIRE = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "redis.call('zremrangebyscore', KEYS[1], 0, now); "
+            + "if (redis.call('zcard', KEYS[1]) < tonumber(ARGV[1])) then "
+            + "    redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), ARGV[3]); "
+            + "    local last = redis.call('zrange', KEYS[1], -1, -1, 'withscores'); "
+            + "    redis.call('pexpire', KEYS[1], tonumber(last[2]) - now); "
+            + "    return nil; "
+            + "end; "
+            + "local first = redis.call('zrange', KEYS[1], 0, 0, 'withscores'); "
+            + "return tonumber(first[2]) - now;";
+
+    // 释放许可 lua 脚本
+    // KEYS[1] 信号量名称，KEYS[2] 许可释放消息频道，ARGV[1] 许可标识，ARGV[2] 许可释放消息
+    // 释放成功返回 1 并唤醒一个等待者，许可不存在或已过期返回 0
+    private final static String RELEASE = "if (redis.call('zrem', KEYS[1], ARGV[1]) == 1) then "
+            + "    redis.call('publish', KEYS[2], ARGV[2]); "
+            + "    return 1; "
+            + "end; "
+            + "return 0;";
+
+    // 许可续期 lua 脚本
+    // KEYS[1] 信号量名称，ARGV[1] 许可标识，ARGV[2] 许可有效期（毫秒）
+    // 许可仍有效时重置过期时间，返回 1，否则返回 0
+    private final static String RENEW = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "local expireAt = tonumber(redis.call('zscore', KEYS[1], ARGV[1])); "
+            + "if (expireAt == nil or expireAt <= now) then "
+            + "    return 0; "
+            + "end; "
+            + "redis.call('zadd', KEYS[1], now + tonumber(ARGV[2]), ARGV[1]); "
+            + "if (redis.call('pttl', KEYS[1]) < tonumber(ARGV[2])) then "
+            + "    redis.call('pexpire', KEYS[1], ARGV[2]); "
+            + "end; "
+            + "return 1;";
+
+    // 剩余许可数量 lua 脚本
+    // KEYS[1] 信号量名称，ARGV[1] 许可总数
+    private final static String AVAILABLE = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "redis.call('zremrangebyscore', KEYS[1], 0, now); "
+            + "return math.max(0, tonumber(ARGV[1]) - redis.call('zcard', KEYS[1]));";
+
+    private final static RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(ACQUIRE, Long.class);
+
+    private final static RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(RELEASE, Long.class);
+
+    private final static RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(RENEW, Long.class);
+
+    private final static RedisScript<Long> AVAILABLE_SCRIPT = new DefaultRedisScript<>(AVAILABLE, Long.class);
+
+    private ExpirableSemaphore(String name, int permits, LockContext context) {
+        this.name = name;
+        this.permits = permits;
+        this.redisTemplate = context.getRedisTemplate();
+        this.pubSub = context.getPubSub();
+    }
+
+    /**
+     * 获取信号量实例
+     * @param name 信号量名称
+     * @param permits 许可总数，同名信号量应使用相同的许可总数
+     * @param context 分布式锁共享组件
+     * @return 信号量实例
+     */
+    public static ExpirableSemaphore instance(String name, int permits, LockContext context) {
+        Assert.notNull(name, "name 不能为空");
+        Assert.isTrue(permits > 0, "permits 必须大于 0");
+        Assert.notNull(context, "context 不能为空");
+        ExpirableSemaphore semaphore = new ExpirableSemaphore(name, permits, context);
+        return semaphore;
+    }
+
+    /**
+     * 获取许可，获取不到时一直等待
+     * @param leaseTime 许可有效期，到期未释放自动失效
+     * @param unit 时间单位
+     * @return 许可标识，释放许可时使用
+     * @throws InterruptedException 等待期间被中断
+     */
+    public String acquire(long leaseTime, TimeUnit unit) throws InterruptedException {
+        return acquire(-1, unit.toMillis(leaseTime));
+    }
+
+    /**
+     * 尝试获取许可，不等待
+     * @param leaseTime 许可有效期，到期未释放自动失效
+     * @param unit 时间单位
+     * @return 许可标识，获取失败返回 null
+     */
+    public String tryAcquire(long leaseTime, TimeUnit unit) {
+        String permitId = newPermitId();
+        return tryAcquire(unit.toMillis(leaseTime), permitId) == null ? permitId : null;
+    }
+
+    /**
+     * 在等待时间内获取许可
+     * @param waitTime 最长等待时间
+     * @param leaseTime 许可有效期，到期未释放自动失效
+     * @param unit 时间单位
+     * @return 许可标识，获取失败返回 null
+     * @throws InterruptedException 等待期间被中断
+     */
+    public String tryAcquire(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        return acquire(Math.max(0, unit.toMillis(waitTime)), unit.toMillis(leaseTime));
+    }
+
+    /**
+     * 获取许可，获取失败时订阅许可释放消息并阻塞等待
+     * <p>
+     * 收到释放消息或等待时间达到最早一个许可的剩余有效期时重新尝试获取
+     * @param waitTime 最长等待时间（毫秒），-1 表示一直等待
+     * @param leaseTime 许可有效期（毫秒）
+     * @return 许可标识，获取失败返回 null
+     * @throws InterruptedException 等待期间被中断
+     */
+    private String acquire(long waitTime, long leaseTime) throws InterruptedException {
+        Assert.isTrue(leaseTime > 0, "leaseTime 必须大于 0");
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        String permitId = newPermitId();
+        Long ttl = tryAcquire(leaseTime, permitId);
+        if (ttl == null) {
+            return permitId;
+        }
+        if (waitTime == 0) {
+            return null;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTime);
+        String channel = getChannelName();
+        LockPubSub.LockEntry entry = pubSub.subscribe(channel);
+        try {
+            while (true) {
+                ttl = tryAcquire(leaseTime, permitId);
+                if (ttl == null) {
+                    return permitId;
+                }
+                if (waitTime != -1) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    ttl = Math.min(ttl, remaining);
+                }
+                entry.getLatch().tryAcquire(ttl, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            pubSub.unsubscribe(channel, entry);
+        }
+    }
+
+    /**
+     * 尝试获取许可
+     * @param leaseTime 许可有效期（毫秒）
+     * @param permitId 许可标识
+     * @return 获取成功返回 null，否则返回需要等待的时间（毫秒）
+     */
+    private Long tryAcquire(long leaseTime, String permitId) {
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        try {
+            Long result = redisTemplate.execute(ACQUIRE_SCRIPT, keys, permits, leaseTime, permitId);
+            if (result == null) {
+                return null;
+            }
+            return result > 0 ? result : RETRY_INTERVAL;
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        return RETRY_INTERVAL;
+    }
+
+    /**
+     * 释放许可，唤醒一个等待者
+     * @param permitId 获取许可时返回的许可标识
+     * @return 释放成功返回 true，许可不存在或已过期返回 false
+     */
+    public boolean release(String permitId) {
+        Assert.notNull(permitId, "permitId 不能为空");
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        keys.add(getChannelName());
+        Long result = redisTemplate.execute(RELEASE_SCRIPT, keys, permitId, LockPubSub.UNLOCK_MESSAGE);
+        return result != null && result == 1;
+    }
+
+    /**
+     * 许可续期，持有许可的时间可能超过有效期时定期调用
+     * @param permitId 许可标识
+     * @param leaseTime 许可有效期
+     * @param unit 时间单位
+     * @return 许可仍有效并续期成功返回 true
+     */
+    public boolean renew(String permitId, long leaseTime, TimeUnit unit) {
+        Assert.notNull(permitId, "permitId 不能为空");
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        Long result = redisTemplate.execute(RENEW_SCRIPT, keys, permitId, unit.toMillis(leaseTime));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 剩余许可数量
+     * @return 剩余许可数量
+     */
+    public int availablePermits() {
+        List<String> keys = new ArrayList<>();
+        keys.add(name);
+        Long result = redisTemplate.execute(AVAILABLE_SCRIPT, keys, permits);
+        return result == null ? 0 : result.intValue();
+    }
+
+    /**
+     * 获取许可释放消息频道名称
+     * @return 频道名称
+     */
+    private String getChannelName() {
+        return ClusterKeys.derive(ReentrantLock.CHANNEL_PREFIX, name);
+    }
+
+    private String newPermitId() {
+        return UUID.randomUUID().toString();
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+
+/**
+ * 基于 redis 实现的可重入公平分布式锁
+ * <p>
+ * 获取锁失败的客户端按到达顺序进入 redis 中的等待队列（list），锁空闲时只有队首的客户端可以获取锁，
+ * 释放锁时只向队首客户端的专属频道发布释放消息，不会唤醒其他等待者。
+ * 每个等待者在超时集合（zset）中记录存活截止时间，等待期间每次重试都会刷新，
+ * 超过截止时间仍未刷新的等待者（例如所在进程已退出）会在到达队首时被移出队列
+ * 
+ * @author gaox
+ */
+public class FairLock extends ReentrantLock {
+
+    // 等待者存活时间，毫秒，等待者至少每隔一半存活时间重试一次刷新截止时间
+    private final static long THREAD_WAIT_TIME = 5000L;
+
+    // 等待队列名称前缀
+    public final static String QUEUE_PREFIX = "huaguoshan_lock__queue:";
+
+    // 等待者超时集合名称前缀
+    public final static String TIMEOUT_PREFIX = "huaguoshan_lock__timeout:";
+
+    // 移出队首已超时的等待者，时间使用 redis 服务器时间，避免各客户端时钟不一致
+    // KEYS[2] 等待队列，KEYS[3] 等待者超时集合
+    private final static String REMOVE_EXPIRED_WAITERS = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "while true do "
+            + "    local first = redis.call('lindex', KEYS[2], 0); "
+            + "    if (first == false) then "
+            + "        break; "
+            + "    end; "
+            + "    local timeout = tonumber(redis.call('zscore', KEYS[3], first)); "
+            + "    if (timeout ~= nil and timeout > now) then "
+            + "        break; "
+            + "    end; "
+            + "    redis.call('zrem', KEYS[3], first); "
+            + "    redis.call('lpop', KEYS[2]); "
+            + "end; ";
+
+    // 向队首等待者的专属频道发布释放消息
+    // KEYS[2] 等待队列，KEYS[4] 锁释放消息频道，ARGV[2] 锁释放消息
+    private final static String NOTIFY_FIRST_WAITER = "local next = redis.call('lindex', KEYS[2], 0); "
+            + "if (next ~= false) then "
+            + "    redis.call('publish', KEYS[4] .. ':' .. next, ARGV[2]); "
+            + "end; ";
+
+    // 获取公平锁 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 等待队列，KEYS[3] 等待者超时集合
+    // ARGV[1] 锁过期时间（毫秒），ARGV[2] 获取锁客户端标识，ARGV[3] 等待者存活时间（毫秒）
+    // 锁空闲且等待队列为空或当前客户端位于队首时获取成功，返回 nil，当前客户端重复获取锁时重置过期时间
+    // 否则把当前客户端加入队尾（已在队列中则刷新存活截止时间），返回锁剩余有效期（毫秒），锁空闲时返回等待者存活时间
+    private final static String LOCK = REMOVE_EXPIRED_WAITERS
+            + "if (redis.call('exists', KEYS[1]) == 0) "
+            + "        and ((redis.call('exists', KEYS[2]) == 0) or (redis.call('lindex', KEYS[2], 0) == ARGV[2])) then "
+            + "    redis.call('lpop', KEYS[2]); "
+            + "    redis.call('zrem', KEYS[3], ARGV[2]); "
+            + "    redis.call('hset', KEYS[1], ARGV[2], 1); "
+            + "    redis.call('pexpire', KEYS[1], ARGV[1]); "
+            + "    return nil; "
+            + "end; "
+            + "if (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then "
+            + "    redis.call('hincrby', KEYS[1], ARGV[2], 1); "
+            + "    redis.call('pexpire', KEYS[1], ARGV[1]); "
+            + "    return nil; "
+            + "end; "
+            + "if (redis.call('zadd', KEYS[3], now + tonumber(ARGV[3]), ARGV[2]) == 1) then "
+            + "    redis.call('rpush', KEYS[2], ARGV[2]); "
+            + "end; "
+            + "local ttl = redis.call('pttl', KEYS[1]); "
+            + "if (ttl < 0) then "
+            + "    return tonumber(ARGV[3]); "
+            + "end; "
+            + "return ttl;";
+
+    // 释放公平锁 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 等待队列，KEYS[3] 等待者超时集合，KEYS[4] 锁释放消息频道，ARGV[1] 获取锁客户端标识，ARGV[2] 锁释放消息
+    // 解锁成功返回 1，如果当前锁没有被持有，也认为解锁成功，锁被完全释放时唤醒队首等待者
+    // 否则返回 0
+    private final static String UNLOCK = REMOVE_EXPIRED_WAITERS
+            + "if (redis.call('exists', KEYS[1]) == 0) then "
+            + NOTIFY_FIRST_WAITER
+            + "    return 1; "
+            + "end; "
+            + "if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then "
+            + "    local count = redis.call('hincrby', KEYS[1], ARGV[1], -1); "
+            + "    if (count == 0) then "
+            + "        redis.call('del', KEYS[1]); "
+            + NOTIFY_FIRST_WAITER
+            + "    end; "
+            + "    return 1; "
+            + "end; "
+            + "return 0;";
+
+    // 放弃等待 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 等待队列，KEYS[3] 等待者超时集合，KEYS[4] 锁释放消息频道，ARGV[1] 获取锁客户端标识，ARGV[2] 锁释放消息
+    // 把当前客户端移出等待队列，当前客户端位于队首且锁空闲时唤醒下一个等待者
+    private final static String CANCEL = "local first = redis.call('lindex', KEYS[2], 0); "
+            + "redis.call('zrem', KEYS[3], ARGV[1]); "
+            + "redis.call('lrem', KEYS[2], 0, ARGV[1]); "
+            + "if (first == ARGV[1] and redis.call('exists', KEYS[1]) == 0) then "
+            + NOTIFY_FIRST_WAITER
+            + "end; "
+            + "return 1;";
+
+    private final static RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(LOCK, Long.class);
+
+    private final static RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(UNLOCK, Long.class);
+
+    private final static RedisScript<Long> CANCEL_SCRIPT = new DefaultRedisScript<>(CANCEL, Long.class);
+
+    private FairLock(String lockName, LockContext context) {
+        super(lockName, context);
+    }
+
+    /**
+     * 获取公平锁实例
+     * @param lockName 锁名称
+     * @param context 分布式锁共享组件
+     * @return 公平锁实例
+     */
+    public static FairLock instance(String lockName, LockContext context) {
+        Assert.notNull(lockName, "lockName 不能为空");
+        Assert.notNull(context, "context 不能为空");
+        FairLock lock = new FairLock(lockName, context);
+        return lock;
+    }
+
+    /**
+     * 执行获取公平锁脚本，等待时间不超过一半存活时间，保证等待者按时刷新存活截止时间
+     */
+    @Override
+    protected Long tryLockInner(long expireMilli, String clientId) {
+        Long ttl = redisTempalte.execute(LOCK_SCRIPT, getKeys(), expireMilli, clientId, THREAD_WAIT_TIME);
+        return ttl == null ? null : Math.min(ttl, THREAD_WAIT_TIME / 2);
+    }
+
+    @Override
+    protected Long unlockInner(String clientId) {
+        return redisTempalte.execute(UNLOCK_SCRIPT, getKeys(), clientId, LockPubSub.UNLOCK_MESSAGE);
+    }
+
+    @Override
+    protected void cancelAcquire(String clientId) {
+        executeCancel(CANCEL_SCRIPT, getKeys(), clientId, LockPubSub.UNLOCK_MESSAGE);
+    }
+
+    /**
+     * 等待者只订阅自己的专属频道，频道名称与脚本中拼接的名称一致
+     */
+    @Override
+    protected String getChannelName(String clientId) {
+        return getChannelName() + ":" + clientId;
+    }
+
+    private List<String> getKeys() {
+        List<String> keys = new ArrayList<>();
+        keys.add(lockName);
+        keys.add(ClusterKeys.derive(QUEUE_PREFIX, lockName));
+        keys.add(ClusterKeys.derive(TIMEOUT_PREFIX, lockName));
+        keys.add(getChannelName());
+        return keys;
+    }
+
+}
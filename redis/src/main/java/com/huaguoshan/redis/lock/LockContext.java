@@ -0,0 +1,60 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.concurrent.Executor;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.RedisCircuitBreaker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+
+/**
+ * 分布式锁共享组件，同一个 {@code HuaGuoShanRedis} 创建的所有锁共享
+ * 
+ * @author gaox
+ *
+ */
+@Getter
+public class LockContext {
+
+    // redisTemplate
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 锁释放消息订阅
+    private LockPubSub pubSub;
+
+    // 锁看门狗
+    private LockWatchdog watchdog;
+
+    // 异步 API 执行 redis 命令的线程池
+    private Executor executor;
+
+    // 客户端实例标识，与持有者标识组成获取锁客户端标识，区分不同 JVM 中的同名持有者
+    private String instanceId;
+
+    // 监控指标注册表
+    private MeterRegistry meterRegistry;
+
+    // redis 熔断器，熔断期间获取锁不访问 redis，直接失败，为 null 时不熔断
+    private RedisCircuitBreaker circuitBreaker;
+
+    public LockContext(RedisTemplate<String, Object> redisTemplate, LockPubSub pubSub, LockWatchdog watchdog, Executor executor, String instanceId,
+            MeterRegistry meterRegistry, RedisCircuitBreaker circuitBreaker) {
+        Assert.notNull(redisTemplate, "redisTemplate 不能为空");
+        Assert.notNull(pubSub, "pubSub 不能为空");
+        Assert.notNull(watchdog, "watchdog 不能为空");
+        Assert.notNull(executor, "executor 不能为空");
+        Assert.notNull(instanceId, "instanceId 不能为空");
+        Assert.notNull(meterRegistry, "meterRegistry 不能为空");
+        this.redisTemplate = redisTemplate;
+        this.pubSub = pubSub;
+        this.watchdog = watchdog;
+        this.executor = executor;
+        this.instanceId = instanceId;
+        this.meterRegistry = meterRegistry;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+}
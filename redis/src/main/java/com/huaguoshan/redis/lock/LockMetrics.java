@@ -0,0 +1,137 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 单把锁的监控指标，按锁名称和锁类型打标签
+ * <p>
+ * 指标在创建锁实例时注册，获取、释放锁时只记录数值，不查找指标；
+ * 同名同类型的锁实例共享同一组指标
+ * <ul>
+ * <li>huaguoshan.lock.acquire：获取锁耗时，result 为 acquired 或 failed</li>
+ * <li>huaguoshan.lock.contended：首次尝试未获取到锁、需要等待的次数</li>
+ * <li>huaguoshan.lock.retries：每次获取锁的重试次数</li>
+ * <li>huaguoshan.lock.hold：从首次获取到完全释放的持有时间</li>
+ * <li>huaguoshan.redis.script：获取锁、释放锁脚本的往返耗时，script 为 lock 或 unlock</li>
+ * </ul>
+ *
+ * @author gaox
+ */
+class LockMetrics {
+
+    // 最多同时记录持有时间的持有者数量，到期自动释放、未调用解锁的持有者不会被移出，超过后不再记录
+    private final static int MAX_HOLDS = 10000;
+
+    // 获取成功耗时
+    private Timer acquired;
+
+    // 获取失败（超时、中断、tryLock 失败）耗时
+    private Timer failed;
+
+    // 需要等待的次数
+    private Counter contended;
+
+    // 重试次数
+    private DistributionSummary retries;
+
+    // 持有时间
+    private Timer hold;
+
+    // 获取锁脚本耗时
+    private Timer lockScript;
+
+    // 释放锁脚本耗时
+    private Timer unlockScript;
+
+    // 获取锁客户端标识 -> 持有信息
+    private ConcurrentMap<String, Hold> holds = new ConcurrentHashMap<>();
+
+    LockMetrics(String lockName, String type, MeterRegistry registry) {
+        acquired = Timer.builder("huaguoshan.lock.acquire").description("获取锁耗时")
+                .tag("name", lockName).tag("type", type).tag("result", "acquired").register(registry);
+        failed = Timer.builder("huaguoshan.lock.acquire").description("获取锁耗时")
+                .tag("name", lockName).tag("type", type).tag("result", "failed").register(registry);
+        contended = Counter.builder("huaguoshan.lock.contended").description("首次尝试未获取到锁的次数")
+                .tag("name", lockName).tag("type", type).register(registry);
+        retries = DistributionSummary.builder("huaguoshan.lock.retries").description("获取锁的重试次数")
+                .tag("name", lockName).tag("type", type).register(registry);
+        hold = Timer.builder("huaguoshan.lock.hold").description("锁持有时间")
+                .tag("name", lockName).tag("type", type).register(registry);
+        lockScript = Timer.builder("huaguoshan.redis.script").description("lua 脚本往返耗时")
+                .tag("name", lockName).tag("type", type).tag("script", "lock").register(registry);
+        unlockScript = Timer.builder("huaguoshan.redis.script").description("lua 脚本往返耗时")
+                .tag("name", lockName).tag("type", type).tag("script", "unlock").register(registry);
+    }
+
+    /**
+     * 记录获取锁结果
+     * @param clientId 获取锁客户端标识
+     * @param startNanos 开始获取时间，纳秒
+     * @param attempts 尝试次数
+     * @param success 是否获取成功
+     */
+    void acquire(String clientId, long startNanos, int attempts, boolean success) {
+        long now = System.nanoTime();
+        (success ? acquired : failed).record(now - startNanos, TimeUnit.NANOSECONDS);
+        if (attempts > 1) {
+            contended.increment();
+        }
+        retries.record(Math.max(0, attempts - 1));
+        if (success && (holds.size() < MAX_HOLDS || holds.containsKey(clientId))) {
+            holds.compute(clientId, (key, current) -> {
+                if (current == null) {
+                    return new Hold(now);
+                }
+                current.count++;
+                return current;
+            });
+        }
+    }
+
+    /**
+     * 记录释放锁，完全释放时记录持有时间
+     * @param clientId 获取锁客户端标识
+     */
+    void release(String clientId) {
+        holds.computeIfPresent(clientId, (key, current) -> {
+            if (--current.count > 0) {
+                return current;
+            }
+            hold.record(System.nanoTime() - current.startNanos, TimeUnit.NANOSECONDS);
+            return null;
+        });
+    }
+
+    void recordLockScript(long startNanos) {
+        lockScript.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordUnlockScript(long startNanos) {
+        unlockScript.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 持有信息
+     */
+    private static class Hold {
+
+        // 首次获取时间，纳秒
+        private final long startNanos;
+
+        // 重入次数，只在 holds 的 compute 方法内修改
+        private int count = 1;
+
+        private Hold(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+    }
+
+}
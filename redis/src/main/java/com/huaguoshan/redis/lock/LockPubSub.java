@@ -0,0 +1,241 @@
+package com.huaguoshan.redis.lock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.util.Assert;
+
+/**
+ * 锁释放消息订阅
+ * <p>
+ * 启动时按频道前缀向 redis 订阅一次，所有锁共享这一个订阅；
+ * 同一频道的等待者共享一个 {@link LockEntry}，每收到一条释放消息唤醒一个等待者
+ * （{@link #WAKE_ALL_MESSAGE} 唤醒所有等待者），最后一个等待者退出时移除。
+ * <p>
+ * 同步等待者阻塞在 {@link LockEntry#getLatch()} 上；异步等待者通过 {@link #await(LockEntry, long, AsyncWaiter)}
+ * 登记回调，不占用线程，收到释放消息或超时后执行回调，优先唤醒异步等待者；放弃等待时通过
+ * {@link #cancel(LockEntry, AsyncWaiter)} 移出，已被唤醒的等待者通过 {@link #signal(LockEntry)} 把释放消息转交给其他等待者
+ *
+ * @author gaox
+ */
+public class LockPubSub implements MessageListener {
+
+    // 锁释放消息，唤醒一个等待者
+    public final static String UNLOCK_MESSAGE = "0";
+
+    // 锁释放消息，唤醒所有等待者，由脚本直接发布，不经过序列化
+    public final static String WAKE_ALL_MESSAGE = "1";
+
+    // 频道名称 -> 等待者共享的订阅
+    private ConcurrentMap<String, LockEntry> entries = new ConcurrentHashMap<>();
+
+    // 异步等待超时调度线程
+    private ScheduledThreadPoolExecutor timer;
+
+    /**
+     * 创建锁释放消息订阅，并向 redis 订阅 {@code channelPrefix} 开头的所有频道
+     * @param container redis 消息监听容器
+     * @param channelPrefix 频道前缀
+     */
+    public LockPubSub(RedisMessageListenerContainer container, String channelPrefix) {
+        Assert.notNull(container, "container 不能为空");
+        Assert.notNull(channelPrefix, "channelPrefix 不能为空");
+        container.addMessageListener(this, new PatternTopic(channelPrefix + "*"));
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "huaguoshan-lock-pubsub-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 开始等待频道上的释放消息
+     * @param channel 频道名称
+     * @return 等待者共享的订阅
+     */
+    public LockEntry subscribe(String channel) {
+        synchronized (entries) {
+            LockEntry entry = entries.get(channel);
+            if (entry == null) {
+                entry = new LockEntry();
+                entries.put(channel, entry);
+            }
+            entry.counter++;
+            return entry;
+        }
+    }
+
+    /**
+     * 结束等待，最后一个等待者退出时移除订阅
+     * @param channel 频道名称
+     * @param entry 订阅
+     */
+    public void unsubscribe(String channel, LockEntry entry) {
+        synchronized (entries) {
+            if (--entry.counter == 0) {
+                entries.remove(channel);
+            }
+        }
+    }
+
+    /**
+     * 异步等待订阅上的释放消息，不占用线程
+     * <p>
+     * 收到释放消息或等待 {@code timeout} 毫秒后执行一次回调，回调在消息监听线程或超时调度线程中执行，
+     * 不能在回调中直接执行阻塞操作。订阅之后、登记之前到达的释放消息保存在 {@link LockEntry#getLatch()} 中，
+     * 登记时会先消费，不会丢失
+     * @param entry 已订阅的 {@link #subscribe(String)} 返回值
+     * @param timeout 最长等待时间，毫秒
+     * @param waiter 异步等待者，放弃等待时传给 {@link #cancel(LockEntry, AsyncWaiter)}，每个等待者只能登记一次
+     */
+    public void await(LockEntry entry, long timeout, AsyncWaiter waiter) {
+        entry.waiters.add(waiter);
+        if (entry.latch.tryAcquire()) {
+            if (entry.waiters.remove(waiter)) {
+                waiter.run();
+                return;
+            }
+            // 已被释放消息唤醒，归还许可给其他等待者
+            entry.latch.release();
+        }
+        if (waiter.done.get()) {
+            return;
+        }
+        waiter.timeout = timer.schedule(() -> {
+            if (entry.waiters.remove(waiter)) {
+                waiter.run();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 放弃异步等待，移出尚未被唤醒的等待者并取消超时，之后不再执行回调
+     * <p>
+     * 等待者已被释放消息或超时唤醒时移出失败，回调照常执行，由回调决定是否通过 {@link #signal(LockEntry)} 转交
+     * @param entry 订阅
+     * @param waiter 登记过的异步等待者，为 null 或尚未登记时不处理
+     * @return 是否移出
+     */
+    public boolean cancel(LockEntry entry, AsyncWaiter waiter) {
+        if (waiter == null || !entry.waiters.remove(waiter)) {
+            return false;
+        }
+        waiter.done.set(true);
+        ScheduledFuture<?> timeout = waiter.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * 唤醒一个等待者，优先唤醒异步等待者，没有异步等待者时释放一个许可，
+     * 用于被唤醒但已放弃等待的等待者转交释放消息
+     * @param entry 订阅
+     */
+    public void signal(LockEntry entry) {
+        AsyncWaiter waiter = entry.waiters.poll();
+        if (waiter != null) {
+            wake(waiter);
+        } else {
+            entry.latch.release();
+        }
+    }
+
+    /**
+     * 停止异步等待超时调度
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        LockEntry entry = entries.get(channel);
+        if (entry != null && WAKE_ALL_MESSAGE.equals(new String(message.getBody(), StandardCharsets.UTF_8))) {
+            AsyncWaiter waiter;
+            while ((waiter = entry.waiters.poll()) != null) {
+                wake(waiter);
+            }
+            // 按订阅的等待者数量释放许可，包括正在重试、尚未阻塞的等待者，丢弃之前残留的许可
+            synchronized (entries) {
+                entry.latch.drainPermits();
+                entry.latch.release(Math.max(1, entry.counter));
+            }
+        } else if (entry != null) {
+            signal(entry);
+        }
+    }
+
+    private void wake(AsyncWaiter waiter) {
+        // 超时任务可能尚未登记，未取消的超时任务从队列中移除失败后不会重复执行回调
+        ScheduledFuture<?> timeout = waiter.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        waiter.run();
+    }
+
+    /**
+     * 异步等待者，收到释放消息或超时只执行一次回调
+     * <p>
+     * 先创建再登记，登记前就可以保存引用，登记后立即被唤醒时也能取到
+     */
+    public static final class AsyncWaiter {
+
+        private Runnable callback;
+
+        private volatile ScheduledFuture<?> timeout;
+
+        private AtomicBoolean done = new AtomicBoolean();
+
+        /**
+         * @param callback 回调，在消息监听线程或超时调度线程中执行，不能直接执行阻塞操作
+         */
+        public AsyncWaiter(Runnable callback) {
+            Assert.notNull(callback, "callback 不能为空");
+            this.callback = callback;
+        }
+
+        private void run() {
+            if (done.compareAndSet(false, true)) {
+                callback.run();
+            }
+        }
+
+    }
+
+    /**
+     * 同一频道等待者共享的订阅
+     */
+    public static class LockEntry {
+
+        // 等待者数量，只在 entries 同步块内修改
+        private int counter;
+
+        // 收到释放消息时释放一个许可
+        private Semaphore latch = new Semaphore(0);
+
+        // 异步等待者
+        private ConcurrentLinkedQueue<AsyncWaiter> waiters = new ConcurrentLinkedQueue<>();
+
+        public Semaphore getLatch() {
+            return latch;
+        }
+
+    }
+
+}
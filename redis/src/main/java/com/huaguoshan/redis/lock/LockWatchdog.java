@@ -0,0 +1,195 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+
+/**
+ * 锁看门狗，为当前 JVM 持有的所有看门狗模式的锁续期
+ * <p>
+ * 所有锁共享一个调度线程，每次续期把持有的锁按批合并到一个 lua 脚本中执行，
+ * 不为每把锁单独创建线程或定时器；集群模式下脚本的键必须在同一个槽，先按槽分组再分批
+ *
+ * @author gaox
+ */
+public class LockWatchdog {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    // redisTemplate
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 锁过期时间，毫秒
+    private long leaseTime;
+
+    // 单次续期脚本最多包含的锁数量
+    private int batchSize;
+
+    // 是否连接 redis 集群
+    private boolean cluster;
+
+    // 续期调度线程
+    private ScheduledExecutorService scheduler;
+
+    // 锁名称 + 客户端标识 -> 续期信息
+    private ConcurrentMap<String, RenewalEntry> entries = new ConcurrentHashMap<>();
+
+    // 批量续期 lua 脚本
+    // KEYS[i] 锁名称，ARGV[1] 锁过期时间（毫秒），ARGV[i + 1] KEYS[i] 的持有者客户端标识
+    // 持有者仍持有锁则重置过期时间，返回已不再持有的锁在 KEYS 中的下标
+    private final static String RENEW = "local failed = {}; "
+            + "for i = 1, #KEYS do "
+            + "    if (redis.call('hexists', KEYS[i], ARGV[i + 1]) == 1) then "
+            + "        redis.call('pexpire', KEYS[i], ARGV[1]); "
+            + "    else "
+            + "        table.insert(failed, i); "
+            + "    end; "
+            + "end; "
+            + "return failed;";
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> RENEW_SCRIPT = new DefaultRedisScript<>(RENEW, List.class);
+
+    /**
+     * 创建锁看门狗，每隔 1/3 锁过期时间续期一次
+     * @param redisTemplate redisTemplate
+     * @param leaseTime 锁过期时间，毫秒
+     * @param batchSize 单次续期脚本最多包含的锁数量
+     */
+    public LockWatchdog(RedisTemplate<String, Object> redisTemplate, long leaseTime, int batchSize) {
+        Assert.notNull(redisTemplate, "redisTemplate 不能为空");
+        Assert.isTrue(leaseTime > 0, "leaseTime 必须大于 0");
+        Assert.isTrue(batchSize > 0, "batchSize 必须大于 0");
+        this.redisTemplate = redisTemplate;
+        this.leaseTime = leaseTime;
+        this.batchSize = batchSize;
+        this.cluster = ClusterKeys.isCluster(redisTemplate);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "huaguoshan-lock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, leaseTime / 3);
+        scheduler.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 获取锁过期时间
+     * @return 锁过期时间，毫秒
+     */
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * 登记获取成功的锁，重入时累加持有次数
+     * @param lockName 锁名称
+     * @param clientId 获取锁客户端标识
+     */
+    public void add(String lockName, String clientId) {
+        // 在 compute 内累加，避免同一客户端在其他线程释放或续期移出后累加到已不在 entries 中的记录上
+        entries.compute(getEntryName(lockName, clientId), (key, entry) -> {
+            if (entry == null) {
+                entry = new RenewalEntry(lockName, clientId);
+            }
+            entry.count++;
+            return entry;
+        });
+    }
+
+    /**
+     * 释放锁时扣减持有次数，完全释放后停止续期
+     * @param lockName 锁名称
+     * @param clientId 获取锁客户端标识
+     */
+    public void remove(String lockName, String clientId) {
+        entries.computeIfPresent(getEntryName(lockName, clientId), (key, entry) -> --entry.count > 0 ? entry : null);
+    }
+
+    /**
+     * 停止续期
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        entries.clear();
+    }
+
+    /**
+     * 批量续期当前持有的所有锁
+     */
+    private void renew() {
+        List<RenewalEntry> renewals = new ArrayList<>(entries.values());
+        Collection<List<RenewalEntry>> groups = cluster ? ClusterKeys.groupBySlot(renewals, entry -> entry.lockName)
+                : Collections.singletonList(renewals);
+        for (List<RenewalEntry> group : groups) {
+            for (int from = 0; from < group.size(); from += batchSize) {
+                renew(group.subList(from, Math.min(group.size(), from + batchSize)));
+            }
+        }
+    }
+
+    private void renew(List<RenewalEntry> batch) {
+        List<String> keys = new ArrayList<>(batch.size());
+        Object[] args = new Object[batch.size() + 1];
+        args[0] = leaseTime;
+        for (int index = 0; index < batch.size(); index++) {
+            RenewalEntry entry = batch.get(index);
+            keys.add(entry.lockName);
+            args[index + 1] = entry.clientId;
+        }
+        try {
+            List<?> failed = redisTemplate.execute(RENEW_SCRIPT, keys, args);
+            if (failed == null) {
+                return;
+            }
+            for (Object index : failed) {
+                RenewalEntry entry = batch.get(((Number) index).intValue() - 1);
+                entries.remove(getEntryName(entry.lockName, entry.clientId), entry);
+                logger.warn("锁已不再被持有，停止续期，lockName = " + entry.lockName);
+            }
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+    }
+
+    private String getEntryName(String lockName, String clientId) {
+        return lockName + ":" + clientId;
+    }
+
+    /**
+     * 续期信息
+     */
+    private static class RenewalEntry {
+
+        // 锁名称
+        private String lockName;
+
+        // 获取锁客户端标识
+        private String clientId;
+
+        // 持有次数，只在 entries 的 compute 方法内修改
+        private int count;
+
+        private RenewalEntry(String lockName, String clientId) {
+            this.lockName = lockName;
+            this.clientId = clientId;
+        }
+
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+import com.huaguoshan.redis.RedisCircuitBreaker;
+
+/**
+ * 基于 redis 实现的联锁，一次脚本调用同时获取或释放多把可重入锁，全部获取成功或全部不获取
+ * <p>
+ * 锁名称去重后按字典序排列，每把锁与同名的 {@link ReentrantLock} 使用相同的 hash 结构和获取锁客户端标识，
+ * 两者互斥，同一线程可以互相重入。获取不到锁时订阅所有锁的释放消息，等待阻塞的那把锁释放或到期后重试，
+ * 不逐把加锁，不会因加锁顺序不同产生死锁。
+ * <p>
+ * 集群模式下一个脚本的所有键必须在同一个槽，锁名称需要使用相同的 hash tag，例如 {order:1}:stock、{order:1}:coupon。
+ * 与线程绑定，不提供异步方法
+ *
+ * @author gaox
+ */
+public class MultiLock implements Lock {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    // 锁名称，去重并按字典序排列
+    private List<String> lockNames;
+
+    // 锁释放消息频道，去重
+    private List<String> channels;
+
+    // 每把锁的释放消息频道在 channels 中的下标，与 lockNames 一一对应
+    private int[] channelIndexes;
+
+    // redisTemplate
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 锁释放消息订阅
+    private LockPubSub pubSub;
+
+    // 锁看门狗
+    private LockWatchdog watchdog;
+
+    // 客户端实例标识
+    private String instanceId;
+
+    // 监控指标，锁名称标签为以逗号连接的所有锁名称
+    private LockMetrics metrics;
+
+    // redis 熔断器，为 null 时不熔断
+    private RedisCircuitBreaker circuitBreaker;
+
+    // 获取锁异常或锁未设置过期时间时，重试等待时间，毫秒
+    private final static long RETRY_INTERVAL = 100L;
+
+    // 获取联锁 lua 脚本
+    // KEYS[i] 锁名称，ARGV[1] 锁过期时间（毫秒），ARGV[2] 获取锁客户端标识
+    // 所有锁都未被其他客户端持有时全部获取（重入计数加 1）并重置过期时间，返回空列表
+    // 否则不获取任何锁，返回 {第一把被其他客户端持有的锁在 KEYS 中的下标, 该锁剩余有效期（毫秒）}
+    private final static String LOCK = "for i = 1, #KEYS do "
+            + "    if (redis.call('exists', KEYS[i]) == 1 and redis.call('hexists', KEYS[i], ARGV[2]) == 0) then "
+            + "        return {i, redis.call('pttl', KEYS[i])}; "
+            + "    end; "
+            + "end; "
+            + "for i = 1, #KEYS do "
+            + "    redis.call('hincrby', KEYS[i], ARGV[2], 1); "
+            + "    redis.call('pexpire', KEYS[i], ARGV[1]); "
+            + "end; "
+            + "return {};";
+
+    // 释放联锁 lua 脚本
+    // KEYS[1 ~ n] 锁名称，KEYS[n + 1 ~] 去重后的锁释放消息频道，ARGV[1] 获取锁客户端标识，ARGV[2] 锁释放消息，
+    // ARGV[2 + i] KEYS[i] 的释放消息频道是第几个频道
+    // 有锁被其他客户端持有时不释放任何锁，返回 0
+    // 否则每把锁重入计数减 1，完全释放或锁已不存在时向对应频道发布释放消息，每个频道只发布一次，返回 1
+    private final static String UNLOCK = "local n = #ARGV - 2; "
+            + "for i = 1, n do "
+            + "    if (redis.call('exists', KEYS[i]) == 1 and redis.call('hexists', KEYS[i], ARGV[1]) == 0) then "
+            + "        return 0; "
+            + "    end; "
+            + "end; "
+            + "local published = {}; "
+            + "for i = 1, n do "
+            + "    local released = redis.call('exists', KEYS[i]) == 0; "
+            + "    if (not released and redis.call('hincrby', KEYS[i], ARGV[1], -1) == 0) then "
+            + "        redis.call('del', KEYS[i]); "
+            + "        released = true; "
+            + "    end; "
+            + "    local channel = n + tonumber(ARGV[2 + i]); "
+            + "    if (released and not published[channel]) then "
+            + "        redis.call('publish', KEYS[channel], ARGV[2]); "
+            + "        published[channel] = true; "
+            + "    end; "
+            + "end; "
+            + "return 1;";
+
+    @SuppressWarnings("rawtypes")
+    private final static RedisScript<List> LOCK_SCRIPT = new DefaultRedisScript<>(LOCK, List.class);
+
+    private final static RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(UNLOCK, Long.class);
+
+    protected MultiLock(List<String> lockNames, LockContext context) {
+        this.lockNames = lockNames;
+        // 不同名称的派生频道可能相同（例如 a 和 {a}），同一频道只订阅、发布一次
+        Map<String, Integer> distinct = new LinkedHashMap<>();
+        this.channelIndexes = new int[lockNames.size()];
+        for (int index = 0; index < lockNames.size(); index++) {
+            String channel = ClusterKeys.derive(ReentrantLock.CHANNEL_PREFIX, lockNames.get(index));
+            channelIndexes[index] = distinct.computeIfAbsent(channel, key -> distinct.size());
+        }
+        this.channels = new ArrayList<>(distinct.keySet());
+        this.redisTemplate = context.getRedisTemplate();
+        this.pubSub = context.getPubSub();
+        this.watchdog = context.getWatchdog();
+        this.instanceId = context.getInstanceId();
+        this.metrics = new LockMetrics(String.join(",", lockNames), getClass().getSimpleName(), context.getMeterRegistry());
+        this.circuitBreaker = context.getCircuitBreaker();
+    }
+
+    /**
+     * 获取联锁实例
+     * @param lockNames 锁名称，重复的名称只获取一次
+     * @param context 分布式锁共享组件
+     * @return 联锁实例
+     */
+    public static MultiLock instance(Collection<String> lockNames, LockContext context) {
+        Assert.notEmpty(lockNames, "lockNames 不能为空");
+        Assert.noNullElements(lockNames, "lockNames 不能包含空值");
+        Assert.notNull(context, "context 不能为空");
+        List<String> sorted = new ArrayList<>(new TreeSet<>(lockNames));
+        if (ClusterKeys.isCluster(context.getRedisTemplate())) {
+            int slot = ClusterKeys.slot(sorted.get(0));
+            for (String lockName : sorted) {
+                Assert.isTrue(ClusterKeys.slot(lockName) == slot, "集群模式下 lockNames 必须在同一个槽，请使用相同的 hash tag：" + lockName);
+            }
+        }
+        MultiLock lock = new MultiLock(sorted, context);
+        return lock;
+    }
+
+    /**
+     * 获取锁名称
+     * @return 去重并按字典序排列的锁名称
+     */
+    public List<String> getLockNames() {
+        return Collections.unmodifiableList(lockNames);
+    }
+
+    /**
+     * 获取所有锁，看门狗模式，持有期间由看门狗定期续期，直到释放锁
+     */
+    @Override
+    public void lock() {
+        lock(-1, null);
+    }
+
+    /**
+     * 获取所有锁，指定锁过期时间，到期后自动释放，不续期
+     * @param leaseTime 锁过期时间
+     * @param unit 时间单位
+     */
+    public void lock(long leaseTime, TimeUnit unit) {
+        Assert.isTrue(leaseTime > 0 || leaseTime == -1, "leaseTime 必须大于 0");
+        try {
+            lock(-1, leaseTime == -1 ? -1 : unit.toMillis(leaseTime), false);
+        } catch (InterruptedException ex) {
+            // 不可中断模式不会抛出
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        lock(-1, -1, true);
+    }
+
+    @Override
+    public boolean tryLock() {
+        String clientId = getClientId();
+        long start = System.nanoTime();
+        boolean acquired = tryAcquire(-1, clientId) == null;
+        metrics.acquire(clientId, start, 1, acquired);
+        return acquired;
+    }
+
+    /**
+     * 在等待时间内获取所有锁，看门狗模式，等待期间可中断
+     * @param time 最长等待时间
+     * @param unit 时间单位
+     * @return 是否获取成功
+     * @throws InterruptedException 等待期间被中断
+     */
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return tryLock(time, -1, unit);
+    }
+
+    /**
+     * 在等待时间内获取所有锁，等待期间可中断
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁过期时间，-1 表示看门狗模式
+     * @param unit 时间单位
+     * @return 是否获取成功
+     * @throws InterruptedException 等待期间被中断
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        Assert.isTrue(leaseTime > 0 || leaseTime == -1, "leaseTime 必须大于 0");
+        return lock(Math.max(0, unit.toMillis(waitTime)), leaseTime == -1 ? -1 : unit.toMillis(leaseTime), true);
+    }
+
+    /**
+     * 获取所有锁，获取失败时订阅所有锁的释放消息并阻塞等待
+     * <p>
+     * 先订阅再重试，等待期间任意一把锁的释放消息都会保留在对应的订阅中；每次只等待阻塞的那把锁，
+     * 收到释放消息或等待时间达到该锁剩余有效期时重新尝试获取所有锁。
+     * 被释放消息唤醒后因其他锁仍获取失败时，把唤醒交给同一频道的其他等待者
+     * @param waitTime 最长等待时间（毫秒），-1 表示一直等待
+     * @param leaseTime 锁过期时间（毫秒），-1 表示看门狗模式
+     * @param interruptibly 是否可中断
+     * @return 是否获取成功
+     * @throws InterruptedException 可中断模式下等待期间被中断
+     */
+    private boolean lock(long waitTime, long leaseTime, boolean interruptibly) throws InterruptedException {
+        if (interruptibly && Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        String clientId = getClientId();
+        long start = System.nanoTime();
+        Blocker blocker = tryAcquire(leaseTime, clientId);
+        if (blocker == null) {
+            metrics.acquire(clientId, start, 1, true);
+            return true;
+        }
+        if (waitTime == 0) {
+            metrics.acquire(clientId, start, 1, false);
+            return false;
+        }
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitTime);
+        boolean interrupted = false;
+        boolean acquired = false;
+        int attempts = 1;
+        List<LockPubSub.LockEntry> entries = new ArrayList<>(channels.size());
+        for (String channel : channels) {
+            entries.add(pubSub.subscribe(channel));
+        }
+        try {
+            attempts++;
+            blocker = tryAcquire(leaseTime, clientId);
+            while (blocker != null) {
+                long ttl = blocker.ttl;
+                if (waitTime != -1) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    ttl = Math.min(ttl, remaining);
+                }
+                // 熔断或 redis 异常时不知道阻塞的锁，等待第一个频道的释放消息或重试间隔
+                int channel = blocker.index < 0 ? 0 : channelIndexes[blocker.index];
+                LockPubSub.LockEntry entry = entries.get(channel);
+                boolean woken = false;
+                try {
+                    woken = entry.getLatch().tryAcquire(ttl, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    if (interruptibly) {
+                        throw ex;
+                    }
+                    interrupted = true;
+                }
+                attempts++;
+                blocker = tryAcquire(leaseTime, clientId);
+                if (woken && blocker != null && (blocker.index < 0 || channelIndexes[blocker.index] != channel)) {
+                    entry.getLatch().release();
+                }
+            }
+            acquired = true;
+            return true;
+        } finally {
+            for (int index = 0; index < channels.size(); index++) {
+                pubSub.unsubscribe(channels.get(index), entries.get(index));
+            }
+            metrics.acquire(clientId, start, attempts, acquired);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 尝试获取所有锁，看门狗模式获取成功时每把锁都登记续期，熔断期间不访问 redis
+     * @param leaseTime 锁过期时间（毫秒），-1 表示看门狗模式
+     * @param clientId 获取锁客户端标识
+     * @return 获取成功返回 null，否则返回阻塞的锁和需要等待的时间
+     */
+    private Blocker tryAcquire(long leaseTime, String clientId) {
+        long expireMilli = leaseTime == -1 ? watchdog.getLeaseTime() : leaseTime;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            return new Blocker(-1, RETRY_INTERVAL);
+        }
+        long start = System.nanoTime();
+        try {
+            List<?> result = redisTemplate.execute(LOCK_SCRIPT, lockNames, expireMilli, clientId);
+            metrics.recordLockScript(start);
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess(start);
+            }
+            if (result.isEmpty()) {
+                if (leaseTime == -1) {
+                    for (String lockName : lockNames) {
+                        watchdog.add(lockName, clientId);
+                    }
+                }
+                return null;
+            }
+            long ttl = ((Number) result.get(1)).longValue();
+            return new Blocker(((Number) result.get(0)).intValue() - 1, ttl > 0 ? ttl : RETRY_INTERVAL);
+        } catch (Exception ex) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onError();
+            }
+            logger.error(ex.getMessage(), ex);
+        }
+        return new Blocker(-1, RETRY_INTERVAL);
+    }
+
+    /**
+     * 释放所有锁
+     * @throws IllegalMonitorStateException 有锁被其他客户端持有，此时不释放任何锁
+     */
+    @Override
+    public void unlock() {
+        String clientId = getClientId();
+        List<String> keys = new ArrayList<>(lockNames.size() + channels.size());
+        keys.addAll(lockNames);
+        keys.addAll(channels);
+        Object[] args = new Object[lockNames.size() + 2];
+        args[0] = clientId;
+        args[1] = LockPubSub.UNLOCK_MESSAGE;
+        for (int index = 0; index < lockNames.size(); index++) {
+            args[index + 2] = channelIndexes[index] + 1;
+        }
+        Long result;
+        try {
+            long start = System.nanoTime();
+            result = redisTemplate.execute(UNLOCK_SCRIPT, keys, args);
+            metrics.recordUnlockScript(start);
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+            throw ex;
+        }
+        if (result == 0) {
+            throw new IllegalMonitorStateException();
+        }
+        for (String lockName : lockNames) {
+            watchdog.remove(lockName, clientId);
+        }
+        metrics.release(clientId);
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 获取当前线程的获取锁客户端标识，与 {@link ReentrantLock} 相同
+     * @return 客户端实例标识:线程 id
+     */
+    private String getClientId() {
+        return instanceId + ":" + Thread.currentThread().getId();
+    }
+
+    /**
+     * 获取失败时阻塞的锁
+     */
+    private static class Blocker {
+
+        // 阻塞的锁在 lockNames 中的下标，熔断或 redis 异常时为 -1
+        private final int index;
+
+        // 需要等待的时间，毫秒
+        private final long ttl;
+
+        private Blocker(int index, long ttl) {
+            this.index = index;
+            this.ttl = ttl;
+        }
+
+    }
+
+}
@@ -2,7 +2,10 @@ package com.huaguoshan.redis.lock;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
@@ -13,23 +16,52 @@ import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.util.Assert;
 
+import com.huaguoshan.redis.ClusterKeys;
+import com.huaguoshan.redis.RedisCircuitBreaker;
+
 /**
  * 基于 redis 实现的可重入分布式锁
+ * <p>
+ * 获取锁客户端标识由客户端实例标识和持有者标识组成，同步方法以当前线程 id 作为持有者标识；
+ * 异步方法可以显式指定持有者标识，获取和释放锁可以不在同一线程中执行。
+ * 异步方法在 {@link LockContext#getExecutor()} 中执行 redis 命令，等待锁释放期间不占用线程。
+ * redis 熔断期间获取锁不访问 redis，按获取失败处理，等待获取的方法每隔重试间隔检查一次熔断状态
  * 
  * @author gaox
  */
 public class ReentrantLock implements Lock {
 
-    private Logger logger = LoggerFactory.getLogger(getClass());
+    protected Logger logger = LoggerFactory.getLogger(getClass());
 
     // 锁名称
-    private String lockName;
+    protected String lockName;
 
     // redisTempalte
-    private RedisTemplate<String, Object> redisTempalte;
+    protected RedisTemplate<String, Object> redisTempalte;
+
+    // 锁释放消息订阅
+    private LockPubSub pubSub;
+
+    // 锁看门狗
+    private LockWatchdog watchdog;
+
+    // 异步 API 执行 redis 命令的线程池
+    private Executor executor;
+
+    // 客户端实例标识
+    private String instanceId;
 
-    // 获取锁默认过期时间，30 秒
-    private final static long DEFAULT_EXPIRE = 30 * 1000L;
+    // 监控指标
+    private LockMetrics metrics;
+
+    // redis 熔断器，为 null 时不熔断
+    private RedisCircuitBreaker circuitBreaker;
+
+    // 获取锁异常或锁未设置过期时间时，重试等待时间，毫秒
+    private final static long RETRY_INTERVAL = 100L;
+
+    // 锁释放消息频道前缀
+    public final static String CHANNEL_PREFIX = "huaguoshan_lock__channel:";
 
     // 获取锁 lua 脚本
     // KEYS[1] 锁名称，ARGV[1] 锁过期时间（秒），ARGV[2] 获取锁客户端标识
@@ -48,89 +80,318 @@ public class ReentrantLock implements Lock {
             + "return redis.call('pttl', KEYS[1]);";
 
     // 解锁 lua 脚本
-    // KEYS[1] 锁名称，ARGV[1] 获取锁客户端标识
+    // KEYS[1] 锁名称，KEYS[2] 锁释放消息频道，ARGV[1] 获取锁客户端标识，ARGV[2] 锁释放消息
     // 解锁成功返回 1，如果当前锁没有被持有，也认为解锁成功
+    // 锁被完全释放时向频道发布释放消息，唤醒等待者
     // 否则返回 0
     private final static String UNLOCK = "if (redis.call('exists', KEYS[1]) == 0) then "
+            + "    redis.call('publish', KEYS[2], ARGV[2]); "
             + "    return 1; "
             + "end; "
             + "if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then "
             + "    local count = redis.call('hincrby', KEYS[1], ARGV[1], -1); "
             + "    if (count == 0) then "
             + "          redis.call('del', KEYS[1]); "
+            + "          redis.call('publish', KEYS[2], ARGV[2]); "
             + "    end; "
             + "    return 1; "
             + "end; "
             + "return 0;";
 
-    private ReentrantLock(String lockName, RedisTemplate<String, Object> redisTemplate) {
+    private final static RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(LOCK, Long.class);
+
+    private final static RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(UNLOCK, Long.class);
+
+    protected ReentrantLock(String lockName, LockContext context) {
         this.lockName = lockName;
-        this.redisTempalte = redisTemplate;
+        this.redisTempalte = context.getRedisTemplate();
+        this.pubSub = context.getPubSub();
+        this.watchdog = context.getWatchdog();
+        this.executor = context.getExecutor();
+        this.instanceId = context.getInstanceId();
+        this.metrics = new LockMetrics(lockName, getClass().getSimpleName(), context.getMeterRegistry());
+        this.circuitBreaker = context.getCircuitBreaker();
     }
 
     /**
      * 获取可重入锁实例
      * @param lockName 锁名称
-     * @param redisTemplate redisTemplate
+     * @param context 分布式锁共享组件
      * @return 可重入锁实例
      */
-    public static ReentrantLock instance(String lockName, RedisTemplate<String, Object> redisTemplate) {
+    public static ReentrantLock instance(String lockName, LockContext context) {
         Assert.notNull(lockName, "lockName 不能为空");
-        Assert.notNull(redisTemplate, "redisTemplate 不能为空");
-        ReentrantLock lock = new ReentrantLock(lockName, redisTemplate);
+        Assert.notNull(context, "context 不能为空");
+        ReentrantLock lock = new ReentrantLock(lockName, context);
         return lock;
     }
 
+    /**
+     * 获取锁，看门狗模式，持有期间由看门狗定期续期，直到释放锁
+     */
     @Override
     public void lock() {
-        while (!tryAcquire()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ex) {
-                ex.printStackTrace(); // TODO
+        lock(-1, null);
+    }
+
+    /**
+     * 获取锁，指定锁过期时间，到期后自动释放，不续期
+     * <p>
+     * 同一线程重入时不要与看门狗模式混用
+     * @param leaseTime 锁过期时间
+     * @param unit 时间单位
+     */
+    public void lock(long leaseTime, TimeUnit unit) {
+        Assert.isTrue(leaseTime > 0 || leaseTime == -1, "leaseTime 必须大于 0");
+        try {
+            lock(-1, leaseTime == -1 ? -1 : unit.toMillis(leaseTime), false);
+        } catch (InterruptedException ex) {
+            // 不可中断模式不会抛出
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 获取锁，获取失败时订阅锁释放消息并阻塞等待
+     * <p>
+     * 收到释放消息或等待时间达到锁剩余有效期时重新尝试获取锁；
+     * 不可中断模式下等待期间的中断会在返回之前恢复，可中断模式下放弃等待并抛出异常
+     * @param waitTime 最长等待时间（毫秒），-1 表示一直等待
+     * @param leaseTime 锁过期时间（毫秒），-1 表示看门狗模式
+     * @param interruptibly 是否可中断
+     * @return 是否获取成功
+     * @throws InterruptedException 可中断模式下等待期间被中断
+     */
+    private boolean lock(long waitTime, long leaseTime, boolean interruptibly) throws InterruptedException {
+        return lock(getClientId(), waitTime, leaseTime, interruptibly);
+    }
+
+    /**
+     * 以指定持有者获取锁，看门狗模式，获取失败时阻塞等待，供 {@link TwoLevelLock} 以进程级持有者获取 redis 锁
+     * @param ownerId 持有者标识，释放锁时使用相同的标识
+     * @param waitTime 最长等待时间（毫秒），-1 表示一直等待
+     * @param interruptibly 是否可中断
+     * @return 是否获取成功
+     * @throws InterruptedException 可中断模式下等待期间被中断
+     */
+    boolean lockByOwner(long ownerId, long waitTime, boolean interruptibly) throws InterruptedException {
+        return lock(getClientId(ownerId), waitTime, -1, interruptibly);
+    }
+
+    private boolean lock(String clientId, long waitTime, long leaseTime, boolean interruptibly) throws InterruptedException {
+        if (interruptibly && Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long start = System.nanoTime();
+        Long ttl = tryAcquire(leaseTime, clientId);
+        if (ttl == null) {
+            metrics.acquire(clientId, start, 1, true);
+            return true;
+        }
+        if (waitTime == 0) {
+            cancelAcquire(clientId);
+            metrics.acquire(clientId, start, 1, false);
+            return false;
+        }
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitTime);
+        boolean interrupted = false;
+        boolean acquired = false;
+        int attempts = 1;
+        String channel = getChannelName(clientId);
+        LockPubSub.LockEntry entry = pubSub.subscribe(channel);
+        try {
+            while (true) {
+                attempts++;
+                ttl = tryAcquire(leaseTime, clientId);
+                if (ttl == null) {
+                    acquired = true;
+                    return true;
+                }
+                if (waitTime != -1) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        cancelAcquire(clientId);
+                        return false;
+                    }
+                    ttl = Math.min(ttl, remaining);
+                }
+                try {
+                    entry.getLatch().tryAcquire(ttl, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    if (interruptibly) {
+                        cancelAcquire(clientId);
+                        throw ex;
+                    }
+                    interrupted = true;
+                }
+            }
+        } finally {
+            pubSub.unsubscribe(channel, entry);
+            metrics.acquire(clientId, start, attempts, acquired);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 尝试获取锁，看门狗模式获取成功时登记续期，熔断期间不访问 redis
+     * @param leaseTime 锁过期时间（毫秒），-1 表示看门狗模式
+     * @param clientId 获取锁客户端标识
+     * @return 获取成功返回 null，否则返回需要等待的时间（毫秒）
+     */
+    private Long tryAcquire(long leaseTime, String clientId) {
+        long expireMilli = leaseTime == -1 ? watchdog.getLeaseTime() : leaseTime;
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            return RETRY_INTERVAL;
+        }
+        long start = System.nanoTime();
+        try {
+            Long result = tryLockInner(expireMilli, clientId);
+            metrics.recordLockScript(start);
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess(start);
             }
+            if (result == null) {
+                if (leaseTime == -1) {
+                    watchdog.add(lockName, clientId);
+                }
+                return null;
+            }
+            return result > 0 ? result : RETRY_INTERVAL;
+        } catch (Exception ex) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onError();
+            }
+            logger.error(ex.getMessage(), ex);
         }
+        return RETRY_INTERVAL;
     }
 
-    private boolean tryAcquire() {
+    /**
+     * 执行获取锁脚本
+     * @param expireMilli 锁过期时间（毫秒）
+     * @param clientId 获取锁客户端标识
+     * @return 获取成功返回 null，否则返回锁剩余有效期（毫秒）
+     */
+    protected Long tryLockInner(long expireMilli, String clientId) {
         List<String> keys = new ArrayList<>();
         keys.add(lockName);
-        Long expireMilli = DEFAULT_EXPIRE;
-        String clientId = getClientId();
+        return redisTempalte.execute(LOCK_SCRIPT, keys, expireMilli, clientId);
+    }
+
+    /**
+     * 执行解锁脚本
+     * @param clientId 获取锁客户端标识
+     * @return 解锁成功返回 1，锁被其他客户端持有返回 0
+     */
+    protected Long unlockInner(String clientId) {
+        List<String> keys = new ArrayList<>();
+        keys.add(lockName);
+        keys.add(getChannelName());
+        return redisTempalte.execute(UNLOCK_SCRIPT, keys, clientId, LockPubSub.UNLOCK_MESSAGE);
+    }
+
+    /**
+     * 放弃等待获取锁，非公平锁没有需要清理的等待状态
+     * @param clientId 获取锁客户端标识
+     */
+    protected void cancelAcquire(String clientId) {
+    }
+
+    /**
+     * 执行放弃等待脚本，与获取锁一样经过熔断器，熔断期间不访问 redis；
+     * 未能执行或执行失败时，等待状态超过存活时间后由获取锁脚本移出
+     * @param script 放弃等待脚本
+     * @param keys 脚本键
+     * @param args 脚本参数
+     */
+    protected void executeCancel(RedisScript<?> script, List<String> keys, Object... args) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            return;
+        }
+        long start = System.nanoTime();
         try {
-            RedisScript<Long> luaScript = new DefaultRedisScript<>(LOCK, Long.class);
-            Long result = redisTempalte.execute(luaScript, keys, expireMilli, clientId);
-            return result == null;
+            redisTempalte.execute(script, keys, args);
+            if (circuitBreaker != null) {
+                circuitBreaker.onSuccess(start);
+            }
         } catch (Exception ex) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onError();
+            }
             logger.error(ex.getMessage(), ex);
         }
-        return false;
     }
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
-        throw new UnsupportedOperationException();
+        lock(-1, -1, true);
     }
 
     @Override
     public boolean tryLock() {
-        return tryAcquire();
+        String clientId = getClientId();
+        long start = System.nanoTime();
+        if (tryAcquire(-1, clientId) == null) {
+            metrics.acquire(clientId, start, 1, true);
+            return true;
+        }
+        cancelAcquire(clientId);
+        metrics.acquire(clientId, start, 1, false);
+        return false;
     }
 
+    /**
+     * 在等待时间内获取锁，看门狗模式，等待期间可中断
+     * @param time 最长等待时间
+     * @param unit 时间单位
+     * @return 是否获取成功
+     * @throws InterruptedException 等待期间被中断
+     */
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-        throw new UnsupportedOperationException();
+        return tryLock(time, -1, unit);
+    }
+
+    /**
+     * 在等待时间内获取锁，等待期间可中断
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁过期时间，-1 表示看门狗模式
+     * @param unit 时间单位
+     * @return 是否获取成功
+     * @throws InterruptedException 等待期间被中断
+     */
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        Assert.isTrue(leaseTime > 0 || leaseTime == -1, "leaseTime 必须大于 0");
+        return lock(Math.max(0, unit.toMillis(waitTime)), leaseTime == -1 ? -1 : unit.toMillis(leaseTime), true);
     }
 
     @Override
     public void unlock() {
-        List<String> keys = new ArrayList<>();
-        keys.add(lockName);
-        String clientId = getClientId();
+        unlock(getClientId());
+    }
+
+    /**
+     * 以指定持有者释放锁
+     * @param ownerId 获取锁时使用的持有者标识
+     * @throws IllegalMonitorStateException 锁被其他客户端持有
+     */
+    void unlockByOwner(long ownerId) {
+        unlock(getClientId(ownerId));
+    }
+
+    /**
+     * 释放锁
+     * @param clientId 获取锁客户端标识
+     * @throws IllegalMonitorStateException 锁被其他客户端持有
+     */
+    private void unlock(String clientId) {
         Long result;
         try {
-            RedisScript<Long> luaScript = new DefaultRedisScript<>(UNLOCK, Long.class);
-            result = redisTempalte.execute(luaScript, keys, clientId);
+            long start = System.nanoTime();
+            result = unlockInner(clientId);
+            metrics.recordUnlockScript(start);
         } catch (Exception ex) {
             logger.error(ex.getMessage(), ex);
             throw ex;
@@ -138,6 +399,8 @@ public class ReentrantLock implements Lock {
         if (result == 0) {
             throw new IllegalMonitorStateException();
         }
+        watchdog.remove(lockName, clientId);
+        metrics.release(clientId);
     }
 
     @Override
@@ -146,11 +409,190 @@ public class ReentrantLock implements Lock {
     }
 
     /**
-     * 获取当前线程 id
-     * @return 当前线程 id
+     * 异步尝试获取锁，看门狗模式，持有者为当前线程
+     * @return 获取成功返回 true
+     */
+    public CompletableFuture<Boolean> tryLockAsync() {
+        return tryLockAsync(Thread.currentThread().getId());
+    }
+
+    /**
+     * 异步尝试获取锁，看门狗模式
+     * @param ownerId 持有者标识，释放锁时使用相同的标识
+     * @return 获取成功返回 true
+     */
+    public CompletableFuture<Boolean> tryLockAsync(long ownerId) {
+        String clientId = getClientId(ownerId);
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            if (tryAcquire(-1, clientId) == null) {
+                metrics.acquire(clientId, start, 1, true);
+                return true;
+            }
+            cancelAcquire(clientId);
+            metrics.acquire(clientId, start, 1, false);
+            return false;
+        }, executor);
+    }
+
+    /**
+     * 异步获取锁，看门狗模式，持有者为当前线程
+     * @return 获取成功时完成
+     */
+    public CompletableFuture<Void> lockAsync() {
+        return lockAsync(Thread.currentThread().getId());
+    }
+
+    /**
+     * 异步获取锁，看门狗模式
+     * <p>
+     * 获取失败时登记异步等待，收到释放消息或等待时间达到锁剩余有效期时重新尝试获取锁，
+     * 等待期间不占用线程。取消返回的 future 会放弃等待，取消后才获取成功的锁会被释放
+     * @param ownerId 持有者标识，释放锁时使用相同的标识
+     * @return 获取成功时完成
+     */
+    public CompletableFuture<Void> lockAsync(long ownerId) {
+        String clientId = getClientId(ownerId);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+        execute(future, () -> {
+            Long ttl = tryAcquire(-1, clientId);
+            if (ttl == null) {
+                metrics.acquire(clientId, start, 1, true);
+                complete(future, clientId);
+                return;
+            }
+            String channel = getChannelName(clientId);
+            LockPubSub.LockEntry entry = pubSub.subscribe(channel);
+            // 放弃等待时移出登记的异步等待者，避免它占用之后的释放消息
+            AtomicReference<LockPubSub.AsyncWaiter> waiter = new AtomicReference<>();
+            future.whenComplete((result, ex) -> {
+                pubSub.cancel(entry, waiter.get());
+                pubSub.unsubscribe(channel, entry);
+            });
+            lockAsync(clientId, entry, waiter, future, start, 2);
+        });
+        return future;
+    }
+
+    /**
+     * 重新尝试获取锁，获取失败时继续异步等待
+     * @param clientId 获取锁客户端标识
+     * @param entry 锁释放消息订阅
+     * @param waiter 当前登记的异步等待者
+     * @param future 获取成功时完成
+     * @param start 开始获取时间，纳秒
+     * @param attempts 本次是第几次尝试
+     */
+    private void lockAsync(String clientId, LockPubSub.LockEntry entry, AtomicReference<LockPubSub.AsyncWaiter> waiter,
+            CompletableFuture<Void> future, long start, int attempts) {
+        if (future.isDone()) {
+            // 已放弃等待，可能是被释放消息唤醒的，转交给同一频道的其他等待者
+            pubSub.signal(entry);
+            cancelAcquire(clientId);
+            metrics.acquire(clientId, start, attempts - 1, false);
+            return;
+        }
+        Long ttl = tryAcquire(-1, clientId);
+        if (ttl == null) {
+            metrics.acquire(clientId, start, attempts, true);
+            complete(future, clientId);
+            return;
+        }
+        LockPubSub.AsyncWaiter next = new LockPubSub.AsyncWaiter(
+                () -> execute(future, () -> lockAsync(clientId, entry, waiter, future, start, attempts + 1)));
+        waiter.set(next);
+        pubSub.await(entry, ttl, next);
+        // 登记之前 future 被取消时 whenComplete 移出失败，这里再移出一次
+        if (future.isDone()) {
+            pubSub.cancel(entry, next);
+        }
+    }
+
+    /**
+     * 异步释放锁，持有者为当前线程
+     * @return 释放成功时完成，锁被其他客户端持有时以 {@link IllegalMonitorStateException} 异常完成
+     */
+    public CompletableFuture<Void> unlockAsync() {
+        return unlockAsync(Thread.currentThread().getId());
+    }
+
+    /**
+     * 异步释放锁
+     * @param ownerId 获取锁时使用的持有者标识
+     * @return 释放成功时完成，锁被其他客户端持有时以 {@link IllegalMonitorStateException} 异常完成
+     */
+    public CompletableFuture<Void> unlockAsync(long ownerId) {
+        String clientId = getClientId(ownerId);
+        return CompletableFuture.runAsync(() -> unlock(clientId), executor);
+    }
+
+    /**
+     * 完成获取锁的 future，future 已被取消时释放刚获取的锁
+     * @param future 获取成功时完成
+     * @param clientId 获取锁客户端标识
+     */
+    private void complete(CompletableFuture<Void> future, String clientId) {
+        if (!future.complete(null)) {
+            try {
+                unlock(clientId);
+            } catch (Exception ex) {
+                logger.error(ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * 在线程池中执行任务，线程池拒绝或任务异常时以异常完成 future
+     * @param future 任务对应的 future
+     * @param task 任务
+     */
+    private void execute(CompletableFuture<?> future, Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * 获取锁释放消息频道名称，与锁在同一个槽
+     * @return 频道名称
+     */
+    protected String getChannelName() {
+        return ClusterKeys.derive(CHANNEL_PREFIX, lockName);
+    }
+
+    /**
+     * 获取等待者订阅的锁释放消息频道名称，非公平锁所有等待者共享一个频道
+     * @param clientId 获取锁客户端标识
+     * @return 频道名称
+     */
+    protected String getChannelName(String clientId) {
+        return getChannelName();
+    }
+
+    /**
+     * 获取当前线程的获取锁客户端标识
+     * @return 获取锁客户端标识
      */
     private String getClientId() {
-        return String.valueOf(Thread.currentThread().getId());
+        return getClientId(Thread.currentThread().getId());
+    }
+
+    /**
+     * 获取锁客户端标识
+     * @param ownerId 持有者标识
+     * @return 客户端实例标识:持有者标识
+     */
+    private String getClientId(long ownerId) {
+        return instanceId + ":" + ownerId;
     }
 
 }
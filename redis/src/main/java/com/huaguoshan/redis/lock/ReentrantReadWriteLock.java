@@ -0,0 +1,241 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.Assert;
+
+import com.huaguoshan.redis.ClusterKeys;
+
+/**
+ * 基于 redis 实现的可重入分布式读写锁
+ * <p>
+ * 读锁与写锁共用一个 hash：{@code mode} 字段记录当前模式（read / write），
+ * 每个持有者一个字段记录重入次数，读锁可以被多个持有者同时持有，写锁独占。
+ * <ul>
+ * <li>写锁优先：等待中的写者登记在等待写者集合（zset）中，集合不为空时新的读者不能获取读锁，
+ * 已持有读锁的读者可以重入；等待写者至少每隔一半存活时间刷新一次截止时间，超时未刷新的会被移出</li>
+ * <li>写锁持有者可以再获取读锁，全部释放之前仍为写模式；读锁持有者不能升级为写锁，否则会一直等待</li>
+ * <li>读锁共享一个过期时间，任一读者获取或续期时只会延长，不会缩短</li>
+ * <li>锁被完全释放时唤醒所有等待者，等待的读者可以同时获取读锁；读者与写者订阅不同的频道，
+ * 反复重试的读者不会抢走唤醒写者的许可</li>
+ * </ul>
+ * 
+ * @author gaox
+ */
+public class ReentrantReadWriteLock implements ReadWriteLock {
+
+    // 等待写者存活时间，毫秒
+    private final static long WRITER_WAIT_TIME = 5000L;
+
+    // 等待写者集合名称前缀
+    public final static String WRITERS_PREFIX = "huaguoshan_lock__writers:";
+
+    // 写者频道后缀
+    private final static String WRITER_CHANNEL_SUFFIX = ":write";
+
+    // 获取读锁 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 等待写者集合，ARGV[1] 锁过期时间（毫秒），ARGV[2] 获取锁客户端标识
+    // 获取成功返回 nil，否则返回锁剩余有效期（毫秒）
+    private final static String READ_LOCK = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "redis.call('zremrangebyscore', KEYS[2], 0, now); "
+            + "local mode = redis.call('hget', KEYS[1], 'mode'); "
+            + "if (mode == 'write' and redis.call('hexists', KEYS[1], ARGV[2]) == 0) then "
+            + "    return redis.call('pttl', KEYS[1]); "
+            + "end; "
+            + "if (mode == false or redis.call('hexists', KEYS[1], ARGV[2]) == 0) then "
+            + "    if (redis.call('zcard', KEYS[2]) > 0) then "
+            + "        return redis.call('pttl', KEYS[1]); "
+            + "    end; "
+            + "end; "
+            + "if (mode == false) then "
+            + "    redis.call('hset', KEYS[1], 'mode', 'read'); "
+            + "end; "
+            + "redis.call('hincrby', KEYS[1], ARGV[2], 1); "
+            + "if (redis.call('pttl', KEYS[1]) < tonumber(ARGV[1])) then "
+            + "    redis.call('pexpire', KEYS[1], ARGV[1]); "
+            + "end; "
+            + "return nil;";
+
+    // 获取写锁 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 等待写者集合，ARGV[1] 锁过期时间（毫秒），ARGV[2] 获取锁客户端标识，ARGV[3] 等待写者存活时间（毫秒）
+    // 获取成功返回 nil，并移出等待写者集合，当前客户端重复获取锁时重置过期时间
+    // 否则登记为等待写者（已登记则刷新截止时间），返回锁剩余有效期（毫秒）
+    private final static String WRITE_LOCK = "local time = redis.call('time'); "
+            + "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000); "
+            + "redis.call('zremrangebyscore', KEYS[2], 0, now); "
+            + "local mode = redis.call('hget', KEYS[1], 'mode'); "
+            + "if (mode == false) then "
+            + "    redis.call('hset', KEYS[1], 'mode', 'write', ARGV[2], 1); "
+            + "    redis.call('pexpire', KEYS[1], ARGV[1]); "
+            + "    redis.call('zrem', KEYS[2], ARGV[2]); "
+            + "    return nil; "
+            + "end; "
+            + "if (mode == 'write' and redis.call('hexists', KEYS[1], ARGV[2]) == 1) then "
+            + "    redis.call('hincrby', KEYS[1], ARGV[2], 1); "
+            + "    redis.call('pexpire', KEYS[1], ARGV[1]); "
+            + "    return nil; "
+            + "end; "
+            + "redis.call('zadd', KEYS[2], now + tonumber(ARGV[3]), ARGV[2]); "
+            + "redis.call('pexpire', KEYS[2], ARGV[3]); "
+            + "return redis.call('pttl', KEYS[1]);";
+
+    // 释放读锁或写锁 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 读者频道，KEYS[3] 写者频道，ARGV[1] 获取锁客户端标识
+    // 解锁成功返回 1，如果当前锁没有被持有，也认为解锁成功
+    // 锁被完全释放时唤醒所有等待者
+    // 否则返回 0
+    private final static String UNLOCK = "if (redis.call('exists', KEYS[1]) == 0) then "
+            + "    redis.call('publish', KEYS[3], '" + LockPubSub.WAKE_ALL_MESSAGE + "'); "
+            + "    redis.call('publish', KEYS[2], '" + LockPubSub.WAKE_ALL_MESSAGE + "'); "
+            + "    return 1; "
+            + "end; "
+            + "if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then "
+            + "    return 0; "
+            + "end; "
+            + "if (redis.call('hincrby', KEYS[1], ARGV[1], -1) == 0) then "
+            + "    redis.call('hdel', KEYS[1], ARGV[1]); "
+            + "    if (redis.call('hlen', KEYS[1]) == 1) then "
+            + "        redis.call('del', KEYS[1]); "
+            + "        redis.call('publish', KEYS[3], '" + LockPubSub.WAKE_ALL_MESSAGE + "'); "
+            + "        redis.call('publish', KEYS[2], '" + LockPubSub.WAKE_ALL_MESSAGE + "'); "
+            + "    end; "
+            + "end; "
+            + "return 1;";
+
+    // 放弃等待写锁 lua 脚本
+    // KEYS[1] 锁名称，KEYS[2] 等待写者集合，KEYS[3] 读者频道，ARGV[1] 获取锁客户端标识
+    // 移出等待写者集合，没有其他等待写者时唤醒被写锁优先阻塞的读者
+    private final static String CANCEL_WRITE = "redis.call('zrem', KEYS[2], ARGV[1]); "
+            + "if (redis.call('zcard', KEYS[2]) == 0) then "
+            + "    redis.call('publish', KEYS[3], '" + LockPubSub.WAKE_ALL_MESSAGE + "'); "
+            + "end; "
+            + "return 1;";
+
+    private final static RedisScript<Long> READ_LOCK_SCRIPT = new DefaultRedisScript<>(READ_LOCK, Long.class);
+
+    private final static RedisScript<Long> WRITE_LOCK_SCRIPT = new DefaultRedisScript<>(WRITE_LOCK, Long.class);
+
+    private final static RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(UNLOCK, Long.class);
+
+    private final static RedisScript<Long> CANCEL_WRITE_SCRIPT = new DefaultRedisScript<>(CANCEL_WRITE, Long.class);
+
+    // 读锁
+    private ReadLock readLock;
+
+    // 写锁
+    private WriteLock writeLock;
+
+    private ReentrantReadWriteLock(String lockName, LockContext context) {
+        this.readLock = new ReadLock(lockName, context);
+        this.writeLock = new WriteLock(lockName, context);
+    }
+
+    /**
+     * 获取可重入读写锁实例
+     * @param lockName 锁名称
+     * @param context 分布式锁共享组件
+     * @return 可重入读写锁实例
+     */
+    public static ReentrantReadWriteLock instance(String lockName, LockContext context) {
+        Assert.notNull(lockName, "lockName 不能为空");
+        Assert.notNull(context, "context 不能为空");
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock(lockName, context);
+        return lock;
+    }
+
+    @Override
+    public ReentrantLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public ReentrantLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * 读锁，可以被多个持有者同时持有
+     */
+    private static class ReadLock extends ReentrantLock {
+
+        private ReadLock(String lockName, LockContext context) {
+            super(lockName, context);
+        }
+
+        @Override
+        protected Long tryLockInner(long expireMilli, String clientId) {
+            List<String> keys = new ArrayList<>();
+            keys.add(lockName);
+            keys.add(ClusterKeys.derive(WRITERS_PREFIX, lockName));
+            return redisTempalte.execute(READ_LOCK_SCRIPT, keys, expireMilli, clientId);
+        }
+
+        @Override
+        protected Long unlockInner(String clientId) {
+            return release(this, clientId);
+        }
+
+    }
+
+    /**
+     * 写锁，独占
+     */
+    private static class WriteLock extends ReentrantLock {
+
+        private WriteLock(String lockName, LockContext context) {
+            super(lockName, context);
+        }
+
+        /**
+         * 执行获取写锁脚本，等待时间不超过一半存活时间，保证等待写者按时刷新截止时间
+         */
+        @Override
+        protected Long tryLockInner(long expireMilli, String clientId) {
+            List<String> keys = new ArrayList<>();
+            keys.add(lockName);
+            keys.add(ClusterKeys.derive(WRITERS_PREFIX, lockName));
+            Long ttl = redisTempalte.execute(WRITE_LOCK_SCRIPT, keys, expireMilli, clientId, WRITER_WAIT_TIME);
+            return ttl == null ? null : Math.min(ttl, WRITER_WAIT_TIME / 2);
+        }
+
+        @Override
+        protected Long unlockInner(String clientId) {
+            return release(this, clientId);
+        }
+
+        @Override
+        protected String getChannelName(String clientId) {
+            return getChannelName() + WRITER_CHANNEL_SUFFIX;
+        }
+
+        @Override
+        protected void cancelAcquire(String clientId) {
+            List<String> keys = new ArrayList<>();
+            keys.add(lockName);
+            keys.add(ClusterKeys.derive(WRITERS_PREFIX, lockName));
+            keys.add(getChannelName());
+            executeCancel(CANCEL_WRITE_SCRIPT, keys, clientId);
+        }
+
+    }
+
+    /**
+     * 执行释放读锁或写锁脚本
+     * @param lock 读锁或写锁
+     * @param clientId 获取锁客户端标识
+     * @return 解锁成功返回 1，锁被其他客户端持有返回 0
+     */
+    private static Long release(ReentrantLock lock, String clientId) {
+        List<String> keys = new ArrayList<>();
+        keys.add(lock.lockName);
+        keys.add(lock.getChannelName());
+        keys.add(lock.getChannelName() + WRITER_CHANNEL_SUFFIX);
+        return lock.redisTempalte.execute(UNLOCK_SCRIPT, keys, clientId);
+    }
+
+}
@@ -0,0 +1,250 @@
+package com.huaguoshan.redis.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * 本地锁 + redis 锁两级分布式锁，看门狗模式
+ * <p>
+ * 同一 JVM 中的线程先在本地公平锁上排队，只有获取到本地锁的线程才去 redis 竞争，
+ * 进程内竞争不再产生 redis 轮询；redis 锁以进程级持有者获取，与线程无关。
+ * <p>
+ * 释放时如果本地还有等待者，redis 锁不释放，直接交给下一个本地等待者，省去一次释放和一次获取的往返；
+ * 连续交接达到 {@code maxHandoffs} 次后必须释放 redis 锁，让其他 JVM 有机会获取，0 表示不交接。
+ * 交接期间 redis 锁由看门狗续期，看门狗续期失败（例如 redis 长时间不可用导致锁过期）时，
+ * 与 {@link ReentrantLock} 一样可能出现两个持有者。
+ * <p>
+ * 本地锁与线程绑定，不提供异步方法和指定锁过期时间的方法
+ *
+ * @author gaox
+ */
+public class TwoLevelLock implements Lock {
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    // 进程级持有者标识，取负数，不与线程 id 冲突；每个实例使用不同的标识，同名的多个实例之间通过 redis 互斥
+    private final static AtomicLong OWNER_SEQUENCE = new AtomicLong();
+
+    // 锁名称
+    private String lockName;
+
+    // redis 锁
+    private RedisLock redisLock;
+
+    // 本地锁，公平模式，交接按到达顺序进行
+    private java.util.concurrent.locks.ReentrantLock localLock = new java.util.concurrent.locks.ReentrantLock(true);
+
+    // redis 锁持有者标识
+    private long ownerId = OWNER_SEQUENCE.decrementAndGet();
+
+    // 连续交接的最大次数
+    private int maxHandoffs;
+
+    // 当前是否持有 redis 锁，只在持有本地锁时读写
+    private boolean held;
+
+    // 已连续交接的次数，只在持有本地锁时读写
+    private int handoffs;
+
+    // 交接次数
+    private Counter handoffCounter;
+
+    protected TwoLevelLock(String lockName, LockContext context, int maxHandoffs) {
+        this.lockName = lockName;
+        this.redisLock = new RedisLock(lockName, context);
+        this.maxHandoffs = maxHandoffs;
+        this.handoffCounter = Counter.builder("huaguoshan.lock.handoffs").description("redis 锁直接交给本地等待者的次数")
+                .tag("name", lockName).tag("type", getClass().getSimpleName()).register(context.getMeterRegistry());
+    }
+
+    /**
+     * 获取两级锁实例
+     * @param lockName 锁名称
+     * @param context 分布式锁共享组件
+     * @param maxHandoffs redis 锁连续交给本地等待者的最大次数，0 表示每次都释放 redis 锁
+     * @return 两级锁实例
+     */
+    public static TwoLevelLock instance(String lockName, LockContext context, int maxHandoffs) {
+        Assert.notNull(lockName, "lockName 不能为空");
+        Assert.notNull(context, "context 不能为空");
+        Assert.isTrue(maxHandoffs >= 0, "maxHandoffs 不能小于 0");
+        TwoLevelLock lock = new TwoLevelLock(lockName, context, maxHandoffs);
+        return lock;
+    }
+
+    /**
+     * 获取锁名称
+     * @return 锁名称
+     */
+    public String getLockName() {
+        return lockName;
+    }
+
+    @Override
+    public void lock() {
+        localLock.lock();
+        try {
+            acquireRedis(-1, false);
+        } catch (InterruptedException ex) {
+            // 不可中断模式不会抛出
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        try {
+            localLock.lockInterruptibly();
+        } catch (InterruptedException ex) {
+            releaseOrphaned();
+            throw ex;
+        }
+        acquireRedis(-1, true);
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!localLock.tryLock()) {
+            return false;
+        }
+        try {
+            return acquireRedis(0, false);
+        } catch (InterruptedException ex) {
+            // 不等待时不会抛出
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 在等待时间内获取锁，本地排队和 redis 竞争共用等待时间，等待期间可中断
+     * @param time 最长等待时间
+     * @param unit 时间单位
+     * @return 是否获取成功
+     * @throws InterruptedException 等待期间被中断
+     */
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        boolean locked = false;
+        try {
+            locked = localLock.tryLock(time, unit);
+        } finally {
+            if (!locked) {
+                releaseOrphaned();
+            }
+        }
+        if (!locked) {
+            return false;
+        }
+        return acquireRedis(Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())), true);
+    }
+
+    /**
+     * 已持有本地锁，按需获取 redis 锁，获取失败或被中断时释放本地锁
+     * @param waitTime 最长等待时间（毫秒），-1 表示一直等待
+     * @param interruptibly 是否可中断
+     * @return 是否获取成功
+     * @throws InterruptedException 可中断模式下等待期间被中断
+     */
+    private boolean acquireRedis(long waitTime, boolean interruptibly) throws InterruptedException {
+        if (held) {
+            // 本地重入，或上一个持有者交接过来的 redis 锁
+            return true;
+        }
+        boolean acquired = false;
+        try {
+            acquired = redisLock.lockByOwner(ownerId, waitTime, interruptibly);
+            held = acquired;
+            handoffs = 0;
+            return acquired;
+        } finally {
+            if (!acquired) {
+                localLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 释放锁，完全释放时本地有等待者且未达到连续交接次数上限则把 redis 锁交给下一个等待者，否则释放 redis 锁
+     * @throws IllegalMonitorStateException 当前线程未持有锁
+     */
+    @Override
+    public void unlock() {
+        if (!localLock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException();
+        }
+        boolean handedOff = false;
+        try {
+            if (localLock.getHoldCount() == 1) {
+                if (handoffs < maxHandoffs && localLock.hasQueuedThreads()) {
+                    handoffs++;
+                    handoffCounter.increment();
+                    handedOff = true;
+                } else {
+                    releaseRedis();
+                }
+            }
+        } finally {
+            localLock.unlock();
+        }
+        if (handedOff) {
+            releaseOrphaned();
+        }
+    }
+
+    /**
+     * 交接后等待者超时或被中断离开队列时，redis 锁可能无人接手，此时释放 redis 锁；
+     * 交接方和离开队列的等待者都会检查一次，保证最后一个离开的一方能看到无人接手的状态
+     */
+    private void releaseOrphaned() {
+        if (!localLock.tryLock()) {
+            // 有线程持有本地锁，由它负责 redis 锁
+            return;
+        }
+        try {
+            if (held && localLock.getHoldCount() == 1 && !localLock.hasQueuedThreads()) {
+                releaseRedis();
+            }
+        } catch (Exception ex) {
+            // redis 锁已过期或 redis 异常，不影响调用方
+            logger.error(ex.getMessage(), ex);
+        } finally {
+            localLock.unlock();
+        }
+    }
+
+    /**
+     * 释放 redis 锁，只在持有本地锁时调用
+     */
+    private void releaseRedis() {
+        held = false;
+        handoffs = 0;
+        redisLock.unlockByOwner(ownerId);
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 两级锁中的 redis 锁，监控指标按 TwoLevelLock 类型与同名的 {@link ReentrantLock} 区分
+     */
+    private static class RedisLock extends ReentrantLock {
+
+        private RedisLock(String lockName, LockContext context) {
+            super(lockName, context);
+        }
+
+    }
+
+}
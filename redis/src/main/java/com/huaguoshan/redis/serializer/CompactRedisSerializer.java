@@ -0,0 +1,157 @@
+package com.huaguoshan.redis.serializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * 紧凑二进制序列化
+ * <p>
+ * 首字节为类型标识：字符串直接保存 UTF-8 编码，整数使用 zigzag 变长编码，浮点数保存 8 字节，
+ * 不需要类名前缀，也不需要解析文本；其他对象使用带类型信息的 Smile（二进制 JSON）编码
+ * 
+ * @author gaox
+ *
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    private final static byte STRING = 1;
+
+    private final static byte LONG = 2;
+
+    private final static byte INTEGER = 3;
+
+    private final static byte DOUBLE = 4;
+
+    private final static byte BOOLEAN = 5;
+
+    private final static byte BYTES = 6;
+
+    private final static byte OBJECT = 7;
+
+    // 其他对象使用的 Smile ObjectMapper，类型信息与 Jackson 序列化的配置一致
+    private ObjectMapper objectMapper;
+
+    public CompactRedisSerializer() {
+        objectMapper = new ObjectMapper(new SmileFactory());
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        objectMapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance, ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.WRAPPER_ARRAY);
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (value instanceof String) {
+            return tagged(STRING, ((String) value).getBytes(StandardCharsets.UTF_8));
+        }
+        if (value instanceof Long) {
+            return varLong(LONG, (Long) value);
+        }
+        if (value instanceof Integer) {
+            return varLong(INTEGER, (Integer) value);
+        }
+        if (value instanceof Double) {
+            long bits = Double.doubleToRawLongBits((Double) value);
+            byte[] bytes = new byte[9];
+            bytes[0] = DOUBLE;
+            for (int index = 8; index > 0; index--) {
+                bytes[index] = (byte) bits;
+                bits >>>= 8;
+            }
+            return bytes;
+        }
+        if (value instanceof Boolean) {
+            return new byte[] { BOOLEAN, (byte) ((Boolean) value ? 1 : 0) };
+        }
+        if (value instanceof byte[]) {
+            return tagged(BYTES, (byte[]) value);
+        }
+        try {
+            return tagged(OBJECT, objectMapper.writeValueAsBytes(value));
+        } catch (IOException ex) {
+            throw new SerializationException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        switch (bytes[0]) {
+        case STRING:
+            return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+        case LONG:
+            return readVarLong(bytes);
+        case INTEGER:
+            return (int) readVarLong(bytes);
+        case DOUBLE:
+            long bits = 0;
+            for (int index = 1; index < 9; index++) {
+                bits = (bits << 8) | (bytes[index] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        case BOOLEAN:
+            return bytes[1] != 0;
+        case BYTES:
+            return Arrays.copyOfRange(bytes, 1, bytes.length);
+        case OBJECT:
+            try {
+                return objectMapper.readValue(bytes, 1, bytes.length - 1, Object.class);
+            } catch (IOException ex) {
+                throw new SerializationException(ex.getMessage(), ex);
+            }
+        default:
+            throw new SerializationException("未知的类型标识 " + bytes[0]);
+        }
+    }
+
+    private byte[] tagged(byte tag, byte[] payload) {
+        byte[] bytes = new byte[payload.length + 1];
+        bytes[0] = tag;
+        System.arraycopy(payload, 0, bytes, 1, payload.length);
+        return bytes;
+    }
+
+    /**
+     * zigzag 变长编码，绝对值小的整数占用字节少
+     */
+    private byte[] varLong(byte tag, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        byte[] buffer = new byte[11];
+        buffer[0] = tag;
+        int length = 1;
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        buffer[length++] = (byte) zigzag;
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private long readVarLong(byte[] bytes) {
+        long zigzag = 0;
+        int shift = 0;
+        for (int index = 1; index < bytes.length; index++) {
+            zigzag |= (long) (bytes[index] & 0x7F) << shift;
+            if ((bytes[index] & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.huaguoshan.redis.serializer;
+
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * lua 脚本参数序列化，字符串按 UTF-8 编码，数字、布尔值按字符串形式编码，不附加类型信息
+ * <p>
+ * 脚本中读取到的参数与 java 中传入的值一致（例如 {@code clientId} 不带 JSON 引号），
+ * 数字参数可以直接 {@code tonumber}；反序列化统一返回字符串
+ * 
+ * @author gaox
+ *
+ */
+public class RawRedisSerializer implements RedisSerializer<Object> {
+
+    public final static RawRedisSerializer INSTANCE = new RawRedisSerializer();
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        if (value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        throw new SerializationException("不支持的脚本参数类型 " + value.getClass().getName());
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
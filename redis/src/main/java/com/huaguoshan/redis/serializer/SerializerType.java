@@ -0,0 +1,17 @@
+package com.huaguoshan.redis.serializer;
+
+/**
+ * redisTemplate 值序列化方式
+ * 
+ * @author gaox
+ *
+ */
+public enum SerializerType {
+
+    /** 带类名前缀的 JSON，可读性好，每次读取都要解析文本 */
+    JACKSON,
+
+    /** 紧凑二进制，字符串、整数等常用类型不带类名前缀，其他对象使用 Smile 编码，见 CompactRedisSerializer */
+    COMPACT
+
+}
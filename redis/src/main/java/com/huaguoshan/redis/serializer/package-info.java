@@ -0,0 +1,4 @@
+/**
+ * redis 值序列化及 lua 脚本参数序列化
+ */
+package com.huaguoshan.redis.serializer;
\ No newline at end of file
@@ -1,21 +1,51 @@
 package com.huaguoshan.redis;
 
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 
+import com.huaguoshan.redis.cache.InvalidationMode;
+import com.huaguoshan.redis.cache.NearCache;
+import com.huaguoshan.redis.config.HuaGuoShanRedisProperties;
+import com.huaguoshan.redis.limit.AdaptiveLimiter;
+import com.huaguoshan.redis.limit.AdaptiveLimiterConfig;
+import com.huaguoshan.redis.limit.AdaptiveLimiterType;
 import com.huaguoshan.redis.limit.RateLimiter;
 import com.huaguoshan.redis.limit.RateLimiterConfig;
+import com.huaguoshan.redis.limit.RateLimiterResult;
 import com.huaguoshan.redis.limit.RateLimiterType;
+import com.huaguoshan.redis.lock.ExpirableSemaphore;
+import com.huaguoshan.redis.lock.FairLock;
+import com.huaguoshan.redis.lock.MultiLock;
 import com.huaguoshan.redis.lock.ReentrantLock;
+import com.huaguoshan.redis.lock.ReentrantReadWriteLock;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
 
 @SpringBootTest
 class SpringDataRedisApplicationTests {
@@ -28,6 +58,15 @@ class SpringDataRedisApplicationTests {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private HuaGuoShanRedisProperties properties;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     private static ExecutorService executorService = Executors.newFixedThreadPool(300);
 
     //@Test
@@ -87,6 +126,194 @@ class SpringDataRedisApplicationTests {
         }
     }
 
+//    @Test
+    void testLockHandoff() {
+        // 分别使用 10、100、300 个线程竞争同一把锁，每个线程获取、释放锁 10 次
+        // 统计释放锁到下一个线程获取锁的平均交接延迟，以及期间 redis 每秒执行命令数
+        for (int threads : new int[] { 10, 100, 300 }) {
+            testLockHandoff("handoff ReentrantLock", hgsReis.getReentrantLock("handoff ReentrantLock"), threads, 10);
+        }
+    }
+
+//    @Test
+    void testTwoLevelLock() throws InterruptedException {
+        // 同样的竞争分别使用 ReentrantLock 和 TwoLevelLock，期望两级锁 redis 命令数下降几个数量级
+        for (int threads : new int[] { 10, 100 }) {
+            testLockHandoff("twoLevel ReentrantLock", hgsReis.getReentrantLock("twoLevel ReentrantLock"), threads, 10);
+            testLockHandoff("twoLevel TwoLevelLock", hgsReis.getTwoLevelLock("twoLevel TwoLevelLock"), threads, 10);
+        }
+        // 两级锁与同名 ReentrantLock（模拟其他 JVM）混合竞争，期望互斥，且连续交接有上限，其他 JVM 的线程不会饿死
+        String lockName = "twoLevel mixed";
+        java.util.concurrent.locks.Lock[] locks = { hgsReis.getTwoLevelLock(lockName), hgsReis.getReentrantLock(lockName) };
+        AtomicLong inside = new AtomicLong();
+        AtomicLong conflicts = new AtomicLong();
+        AtomicLong[] counts = { new AtomicLong(), new AtomicLong() };
+        long deadline = System.currentTimeMillis() + 3000;
+        CountDownLatch countDownLatch = new CountDownLatch(40);
+        for (int index = 0; index < 40; index++) {
+            int type = index < 30 ? 0 : 1;
+            executorService.execute(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    locks[type].lock();
+                    try {
+                        if (inside.incrementAndGet() > 1) {
+                            conflicts.incrementAndGet();
+                        }
+                        counts[type].incrementAndGet();
+                        inside.decrementAndGet();
+                    } finally {
+                        locks[type].unlock();
+                    }
+                }
+                countDownLatch.countDown();
+            });
+        }
+        countDownLatch.await();
+        logger.info("混合竞争 3000ms，两级锁 30 个线程获取 " + counts[0].get() + " 次，ReentrantLock 10 个线程获取 " + counts[1].get()
+                + " 次，互斥冲突 " + conflicts.get() + " 次");
+    }
+
+    private void testLockHandoff(String lockName, java.util.concurrent.locks.Lock lock, int threads, int rounds) {
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        AtomicLong lastUnlockNanos = new AtomicLong();
+        AtomicLong handoffNanos = new AtomicLong();
+        AtomicLong handoffCount = new AtomicLong();
+        long commandsBefore = getTotalCommandsProcessed();
+        long start = System.nanoTime();
+        for (int index = 0; index < threads; index++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < rounds; round++) {
+                        lock.lock();
+                        long unlockNanos = lastUnlockNanos.get();
+                        if (unlockNanos != 0) {
+                            handoffNanos.addAndGet(System.nanoTime() - unlockNanos);
+                            handoffCount.incrementAndGet();
+                        }
+                        lastUnlockNanos.set(System.nanoTime());
+                        lock.unlock();
+                    }
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        long commands = getTotalCommandsProcessed() - commandsBefore;
+        logger.info(lockName + " " + threads + " 个线程竞争锁，平均交接延迟 " + handoffNanos.get() / Math.max(1, handoffCount.get()) / 1000 + " 微秒，"
+                + "耗时 " + elapsedMillis + " 毫秒，redis 命令 " + commands + " 次，" + commands * 1000 / elapsedMillis + " 次/秒");
+    }
+
+//    @Test
+    void testMultiLock() throws InterruptedException {
+        // 联锁与同名可重入锁互斥，同一线程可以互相重入，全部获取或全部不获取
+        ReentrantLock stock = hgsReis.getReentrantLock("{multi order}:stock");
+        MultiLock multiLock = hgsReis.getMultiLock("{multi order}:stock", "{multi order}:coupon", "{multi order}:account");
+        stock.lock();
+        logger.info("同一线程持有 stock 后获取联锁 " + multiLock.tryLock());
+        multiLock.unlock();
+        CompletableFuture<Boolean> other = CompletableFuture.supplyAsync(multiLock::tryLock, executorService);
+        logger.info("其他线程在 stock 被持有时获取联锁 " + other.join() + "，coupon 未被获取 "
+                + !redisTemplate.hasKey("{multi order}:coupon"));
+        stock.unlock();
+        // multi dup 与 {multi dup} 的释放消息频道相同，只订阅、发布一次
+        MultiLock sameChannel = hgsReis.getMultiLock("multi dup", "{multi dup}");
+        sameChannel.lock();
+        sameChannel.unlock();
+        logger.info("共用释放消息频道的联锁释放后 " + !redisTemplate.hasKey("multi dup") + " " + !redisTemplate.hasKey("{multi dup}"));
+        // 20 个线程各自以随机顺序锁定 6 个资源中的 3 个，联锁一次获取，期望没有冲突和死锁
+        // 对比逐把获取可重入锁，顺序不同时只能靠超时放弃打破死锁
+        for (boolean multi : new boolean[] { true, false }) {
+            AtomicLong[] inside = new AtomicLong[6];
+            for (int index = 0; index < inside.length; index++) {
+                inside[index] = new AtomicLong();
+            }
+            AtomicLong conflicts = new AtomicLong();
+            AtomicLong timeouts = new AtomicLong();
+            CountDownLatch countDownLatch = new CountDownLatch(20);
+            long commandsBefore = getTotalCommandsProcessed();
+            long start = System.nanoTime();
+            for (int thread = 0; thread < 20; thread++) {
+                executorService.execute(() -> {
+                    for (int round = 0; round < 10; round++) {
+                        List<Integer> resources = Arrays.asList(0, 1, 2, 3, 4, 5);
+                        Collections.shuffle(resources);
+                        resources = resources.subList(0, 3);
+                        String[] names = resources.stream().map(index -> "multi resource" + index).toArray(String[]::new);
+                        List<java.util.concurrent.locks.Lock> locks = multi ? Collections.singletonList(hgsReis.getMultiLock(names))
+                                : Arrays.stream(names).map(hgsReis::getReentrantLock).collect(java.util.stream.Collectors.toList());
+                        int locked = 0;
+                        try {
+                            for (java.util.concurrent.locks.Lock lock : locks) {
+                                if (!lock.tryLock(2, TimeUnit.SECONDS)) {
+                                    timeouts.incrementAndGet();
+                                    break;
+                                }
+                                locked++;
+                            }
+                            if (locked == locks.size()) {
+                                for (int index : resources) {
+                                    if (inside[index].incrementAndGet() > 1) {
+                                        conflicts.incrementAndGet();
+                                    }
+                                }
+                                Thread.sleep(5);
+                                for (int index : resources) {
+                                    inside[index].decrementAndGet();
+                                }
+                            }
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            for (int index = locked - 1; index >= 0; index--) {
+                                locks.get(index).unlock();
+                            }
+                        }
+                    }
+                    countDownLatch.countDown();
+                });
+            }
+            countDownLatch.await();
+            logger.info((multi ? "MultiLock" : "逐把 ReentrantLock") + " 完成 200 次，耗时 " + (System.nanoTime() - start) / 1000000
+                    + " 毫秒，冲突 " + conflicts.get() + " 次，超时放弃 " + timeouts.get() + " 次，redis 命令 "
+                    + (getTotalCommandsProcessed() - commandsBefore) + " 条");
+        }
+    }
+
+    private long getTotalCommandsProcessed() {
+        Properties info = redisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("stats"));
+        return Long.parseLong(info.getProperty("total_commands_processed", "0"));
+    }
+
+//    @Test
+    void testWatchdog() {
+        // 同时持有 2000 把看门狗模式的锁，等待 1.5 倍锁过期时间，期望所有锁仍被持有
+        int count = 2000;
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int index = 0; index < count; index++) {
+            locks[index] = hgsReis.getReentrantLock("watchdog ReentrantLock" + index);
+            locks[index].lock();
+        }
+        try {
+            Thread.sleep(properties.getLock().getWatchdogTimeout().toMillis() * 3 / 2);
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        int held = 0;
+        for (int index = 0; index < count; index++) {
+            if (Boolean.TRUE.equals(redisTemplate.hasKey("watchdog ReentrantLock" + index))) {
+                held++;
+            }
+            locks[index].unlock();
+        }
+        logger.info("看门狗续期后仍被持有的锁 " + held + "/" + count);
+    }
+
 //    @Test
     void testReentrant() {
         String lockName = "ReentrantLock";
@@ -110,6 +337,831 @@ class SpringDataRedisApplicationTests {
         lock.unlock();
     }
 
+//    @Test
+    void testTryLock() {
+        // 其他线程持有锁 2s，当前线程 tryLock 等待 500ms，期望约 500ms 后返回 false；
+        // lockInterruptibly 等待期间被中断，期望抛出 InterruptedException
+        String lockName = "tryLock ReentrantLock";
+        ReentrantLock lock = hgsReis.getReentrantLock(lockName);
+        CountDownLatch locked = new CountDownLatch(1);
+        executorService.execute(() -> {
+            lock.lock();
+            locked.countDown();
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ex) {
+                logger.error(ex.getMessage(), ex);
+            }
+            lock.unlock();
+        });
+        try {
+            locked.await();
+            long start = System.nanoTime();
+            boolean success = lock.tryLock(500, TimeUnit.MILLISECONDS);
+            logger.info("tryLock 等待 500ms 结果 " + success + "，耗时 " + (System.nanoTime() - start) / 1000000 + "ms");
+            Thread current = Thread.currentThread();
+            executorService.execute(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ex) {
+                    logger.error(ex.getMessage(), ex);
+                }
+                current.interrupt();
+            });
+            lock.lockInterruptibly();
+            logger.info("lockInterruptibly 获取成功");
+            lock.unlock();
+        } catch (InterruptedException ex) {
+            logger.info("lockInterruptibly 等待期间被中断");
+        }
+    }
+
+//    @Test
+    void testFairLock() {
+        // 300 个线程分别竞争非公平锁和公平锁 5s，每个线程循环获取、释放锁
+        // 统计每个线程获取锁次数的最小值、最大值，公平锁期望各线程次数接近
+        testLockFairness("fairness ReentrantLock", hgsReis.getReentrantLock("fairness ReentrantLock"), 300, 5000);
+        testLockFairness("fairness FairLock", hgsReis.getFairLock("fairness FairLock"), 300, 5000);
+    }
+
+    private void testLockFairness(String lockName, ReentrantLock lock, int threads, long millis) {
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        long[] counts = new long[threads];
+        long deadline = System.currentTimeMillis() + millis;
+        for (int index = 0; index < threads; index++) {
+            int thread = index;
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < deadline) {
+                        lock.lock();
+                        counts[thread]++;
+                        lock.unlock();
+                    }
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        long total = Arrays.stream(counts).sum();
+        long starved = Arrays.stream(counts).filter(count -> count == 0).count();
+        logger.info(lockName + " " + threads + " 个线程共获取锁 " + total + " 次，单线程最少 " + Arrays.stream(counts).min().getAsLong() + " 次，最多 "
+                + Arrays.stream(counts).max().getAsLong() + " 次，未获取到锁的线程 " + starved + " 个");
+    }
+
+//    @Test
+    void testReadWriteLock() {
+        // 100 个线程持续 5s，99% 读 1% 写，每次持有锁期间耗时 2ms
+        // 分别使用独占锁和读写锁，统计完成次数，并检查写锁持有期间没有其他读者或写者
+        testReadWriteLock("readWrite ReentrantLock", hgsReis.getReentrantLock("readWrite ReentrantLock"), hgsReis.getReentrantLock("readWrite ReentrantLock"), 100, 5000);
+        ReentrantReadWriteLock readWriteLock = hgsReis.getReadWriteLock("readWrite ReentrantReadWriteLock");
+        testReadWriteLock("readWrite ReentrantReadWriteLock", readWriteLock.readLock(), readWriteLock.writeLock(), 100, 5000);
+    }
+
+    private void testReadWriteLock(String lockName, ReentrantLock readLock, ReentrantLock writeLock, int threads, long millis) {
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        AtomicLong holders = new AtomicLong();
+        AtomicLong violations = new AtomicLong();
+        long deadline = System.currentTimeMillis() + millis;
+        for (int index = 0; index < threads; index++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < deadline) {
+                        boolean write = ThreadLocalRandom.current().nextInt(100) == 0;
+                        ReentrantLock lock = write ? writeLock : readLock;
+                        lock.lock();
+                        try {
+                            long current = holders.addAndGet(write ? 1000 : 1);
+                            if (write ? current != 1000 : current >= 1000) {
+                                violations.incrementAndGet();
+                            }
+                            Thread.sleep(2);
+                            holders.addAndGet(write ? -1000 : -1);
+                            (write ? writes : reads).incrementAndGet();
+                        } catch (InterruptedException ex) {
+                            logger.error(ex.getMessage(), ex);
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        logger.info(lockName + " " + threads + " 个线程 " + millis + "ms 内完成读 " + reads.get() + " 次，写 " + writes.get() + " 次，互斥冲突 " + violations.get() + " 次");
+    }
+
+//    @Test
+    void testSemaphore() {
+        // 许可总数 3，20 个线程各获取一次许可并持有 200ms，期望同时持有许可的线程不超过 3 个
+        // 再获取 3 个许可不释放（模拟实例异常退出），有效期 1s，期望第 4 次获取约 1s 后成功
+        ExpirableSemaphore semaphore = hgsReis.getSemaphore("semaphore", 3);
+        int threads = 20;
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        AtomicLong holders = new AtomicLong();
+        AtomicLong maxHolders = new AtomicLong();
+        for (int index = 0; index < threads; index++) {
+            executorService.execute(() -> {
+                try {
+                    String permitId = semaphore.acquire(5, TimeUnit.SECONDS);
+                    long current = holders.incrementAndGet();
+                    maxHolders.accumulateAndGet(current, Math::max);
+                    Thread.sleep(200);
+                    holders.decrementAndGet();
+                    semaphore.release(permitId);
+                } catch (InterruptedException ex) {
+                    logger.error(ex.getMessage(), ex);
+                }
+                countDownLatch.countDown();
+            });
+        }
+        try {
+            countDownLatch.await();
+            logger.info("最多同时持有许可 " + maxHolders.get() + " 个，剩余许可 " + semaphore.availablePermits() + " 个");
+            for (int index = 0; index < 3; index++) {
+                semaphore.tryAcquire(1, TimeUnit.SECONDS);
+            }
+            long start = System.nanoTime();
+            String permitId = semaphore.tryAcquire(3, 1, TimeUnit.SECONDS);
+            logger.info("许可过期后获取 " + permitId + "，等待 " + (System.nanoTime() - start) / 1000000 + "ms");
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+    }
+
+//    @Test
+    void testCountDownLatch() {
+        // 计数 5，5 个任务分别在 100ms ~ 500ms 后计数减一，期望等待约 500ms 后返回
+        com.huaguoshan.redis.lock.CountDownLatch latch = hgsReis.getCountDownLatch("countDownLatch");
+        logger.info("设置计数 " + latch.trySetCount(5));
+        for (int index = 1; index <= 5; index++) {
+            long delay = index * 100;
+            executorService.execute(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    logger.error(ex.getMessage(), ex);
+                }
+                latch.countDown();
+            });
+        }
+        long start = System.nanoTime();
+        try {
+            logger.info("等待计数归零 " + latch.await(3, TimeUnit.SECONDS) + "，耗时 " + (System.nanoTime() - start) / 1000000 + "ms");
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+    }
+
+//    @Test
+    void testAsyncLock() {
+        // 10000 个持有者异步竞争同一把锁，获取成功后异步释放，等待期间不占用线程
+        int count = 10000;
+        ReentrantLock lock = hgsReis.getReentrantLock("async ReentrantLock");
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        long start = System.nanoTime();
+        for (int index = 0; index < count; index++) {
+            long ownerId = index;
+            futures[index] = lock.lockAsync(ownerId).thenCompose(result -> lock.unlockAsync(ownerId));
+        }
+        logger.info("已登记 " + count + " 个异步获取锁，当前线程数 " + Thread.activeCount());
+        try {
+            CompletableFuture.allOf(futures).get(10, TimeUnit.MINUTES);
+        } catch (Exception ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        long completed = Arrays.stream(futures).filter(future -> future.isDone() && !future.isCompletedExceptionally()).count();
+        logger.info("异步获取、释放锁完成 " + completed + "/" + count + "，耗时 " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+//    @Test
+    void testAsyncLockCancel() throws Exception {
+        // 持有者标识取负数，避免与线程 id 相同；两个异步等待者先后登记，取消第一个后释放锁，期望第二个很快获取到锁，而不是等到锁过期（看门狗模式约 30s）
+        ReentrantLock lock = hgsReis.getReentrantLock("async cancel ReentrantLock");
+        lock.lock();
+        CompletableFuture<Void> first = lock.lockAsync(-1);
+        Thread.sleep(200);
+        CompletableFuture<Void> second = lock.lockAsync(-2);
+        Thread.sleep(200);
+        first.cancel(false);
+        long start = System.nanoTime();
+        lock.unlock();
+        second.get(10, TimeUnit.SECONDS);
+        logger.info("取消第一个异步等待者后释放锁，第二个等待者 " + (System.nanoTime() - start) / 1000000 + "ms 后获取到锁");
+        lock.unlockAsync(-2).join();
+    }
+
+//    @Test
+    void testInstanceRegistry() {
+        // 同名锁、相同配置的限流器返回同一个实例，配置变化时替换为新的实例
+        // 统计 100 万次重复获取当前线程分配的内存，期望接近 0
+        ReentrantLock lock = hgsReis.getReentrantLock("registry ReentrantLock");
+        logger.info("同名锁是同一个实例 " + (lock == hgsReis.getReentrantLock("registry ReentrantLock")));
+        RateLimiterConfig config = slidingWindowConfig("registry rateLimiter", RateLimiterType.FIXWINDOW, 100);
+        RateLimiter rateLimiter = hgsReis.getRateLimiter(config);
+        logger.info("相同配置的限流器是同一个实例 " + (rateLimiter == hgsReis.getRateLimiter(config)));
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int index = 0; index < 1000000; index++) {
+            hgsReis.getReentrantLock("registry ReentrantLock");
+            hgsReis.getRateLimiter(config);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        logger.info("100 万次重复获取分配内存 " + allocated + " 字节");
+        config.setLimitForPeriod(config.getLimitForPeriod() + 1);
+        logger.info("配置变化后替换为新的实例 " + (rateLimiter != hgsReis.getRateLimiter(config)) + "，原实例配置未被修改 "
+                + (rateLimiter.getConfig().getLimitForPeriod() == config.getLimitForPeriod() - 1));
+        logger.info("限流器注册表实例 " + hgsReis.getRateLimiters().size() + " 个，命中 " + hgsReis.getRateLimiters().getHitCount() + " 次，创建 "
+                + hgsReis.getRateLimiters().getMissCount() + " 次");
+    }
+
+//    @Test
+    void testMetrics() throws InterruptedException {
+        // 10 个线程竞争同一把锁，输出获取耗时、持有时间、重试次数及脚本耗时指标
+        // 再对比本地预取许可的热点路径上记录指标与不记录指标的耗时，期望差异在几十纳秒以内
+        String lockName = "metrics ReentrantLock";
+        ReentrantLock lock = hgsReis.getReentrantLock(lockName);
+        int threads = 10;
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        for (int index = 0; index < threads; index++) {
+            executorService.execute(() -> {
+                for (int round = 0; round < 20; round++) {
+                    lock.lock();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                countDownLatch.countDown();
+            });
+        }
+        countDownLatch.await();
+        Timer acquire = meterRegistry.get("huaguoshan.lock.acquire").tag("name", lockName).tag("result", "acquired").timer();
+        Timer hold = meterRegistry.get("huaguoshan.lock.hold").tag("name", lockName).timer();
+        Timer lockScript = meterRegistry.get("huaguoshan.redis.script").tag("name", lockName).tag("script", "lock").timer();
+        logger.info("获取锁 " + acquire.count() + " 次，平均耗时 " + (long) acquire.mean(TimeUnit.MICROSECONDS) + " 微秒，等待 "
+                + (long) meterRegistry.get("huaguoshan.lock.contended").tag("name", lockName).counter().count() + " 次，平均重试 "
+                + meterRegistry.get("huaguoshan.lock.retries").tag("name", lockName).summary().mean() + " 次，平均持有 "
+                + (long) hold.mean(TimeUnit.MICROSECONDS) + " 微秒，获取锁脚本平均 " + (long) lockScript.mean(TimeUnit.MICROSECONDS) + " 微秒");
+
+        RateLimiterConfig config = slidingWindowConfig("metrics rateLimiter", RateLimiterType.FIXWINDOW, 100);
+        RateLimiter rateLimiter = hgsReis.getRateLimiter(config);
+        for (int index = 0; index < 150; index++) {
+            rateLimiter.getPermission();
+        }
+        logger.info("限流通过 " + (long) meterRegistry.get("huaguoshan.ratelimiter.permission").tag("name", config.getName()).tag("result", "permitted").counter().count()
+                + " 次，不通过 " + (long) meterRegistry.get("huaguoshan.ratelimiter.permission").tag("name", config.getName()).tag("result", "denied").counter().count() + " 次");
+
+        RateLimiterConfig leaseConfig = slidingWindowConfig("metrics lease rateLimiter", RateLimiterType.FIXWINDOW, 100000000);
+        leaseConfig.setLimitRefreshPeriod(Duration.ofMinutes(10));
+        leaseConfig.setLeaseSize(10000000);
+        RateLimiter measured = RateLimiter.instance(leaseConfig, redisTemplate, executorService, meterRegistry);
+        RateLimiter unmeasured = RateLimiter.instance(leaseConfig, redisTemplate, executorService, new CompositeMeterRegistry());
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int index = 0; index < 1000000; index++) {
+                unmeasured.getPermission();
+            }
+            long unmeasuredNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int index = 0; index < 1000000; index++) {
+                measured.getPermission();
+            }
+            long measuredNanos = System.nanoTime() - start;
+            logger.info("本地预取许可 100 万次，不记录指标 " + unmeasuredNanos / 1000000 + " 纳秒/次，记录指标 " + measuredNanos / 1000000 + " 纳秒/次");
+        }
+
+        // 修改配置后同名自适应限流器被替换，旧实例被回收后限制指标应读取新实例，而不是 NaN
+        AdaptiveLimiterConfig adaptiveConfig = new AdaptiveLimiterConfig();
+        adaptiveConfig.setName("metrics adaptiveLimiter");
+        adaptiveConfig.setInitialLimit(20);
+        hgsReis.getAdaptiveLimiter(adaptiveConfig);
+        adaptiveConfig.setInitialLimit(40);
+        AdaptiveLimiter replaced = hgsReis.getAdaptiveLimiter(adaptiveConfig);
+        System.gc();
+        Thread.sleep(100);
+        double gauge = meterRegistry.get("huaguoshan.adaptivelimiter.limit").tag("name", adaptiveConfig.getName()).gauge().value();
+        Assertions.assertEquals(replaced.getLimit(), gauge);
+        logger.info("替换自适应限流器后限制指标 " + gauge);
+    }
+
+//    @Test
+    void testNearCache() throws InterruptedException {
+        // 两个近端缓存模拟两个应用实例，重复读取 100 个热点键，期望绝大部分读取不访问 redis
+        // 一个实例修改后，另一个实例很快读到新值
+        NearCache first = new NearCache(redisTemplate, listenerContainer, InvalidationMode.CHANNEL, "huaguoshan_cache__test", 0, "", 1000, Duration.ofMinutes(1));
+        NearCache second = new NearCache(redisTemplate, listenerContainer, InvalidationMode.CHANNEL, "huaguoshan_cache__test", 0, "", 1000, Duration.ofMinutes(1));
+        for (int index = 0; index < 100; index++) {
+            first.set("nearCache" + index, "value" + index);
+        }
+        long commandsBefore = getTotalCommandsProcessed();
+        long start = System.nanoTime();
+        for (int index = 0; index < 100000; index++) {
+            second.get("nearCache" + index % 100);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("读取 100000 次，耗时 " + elapsedMillis + "ms，命中 " + second.getHitCount() + " 次，未命中 " + second.getMissCount()
+                + " 次，redis 命令 " + (getTotalCommandsProcessed() - commandsBefore) + " 次");
+        first.set("nearCache0", "changed");
+        long changeStart = System.nanoTime();
+        while (!"changed".equals(second.get("nearCache0"))) {
+            Thread.sleep(1);
+        }
+        logger.info("修改后 " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - changeStart) + " 微秒读到新值，收到失效通知 "
+                + second.getInvalidationCount() + " 次");
+        // 清空本地缓存后另一个线程持续修改其他键，期望热点键读取 redis 后照常缓存，未命中次数接近 100
+        second.invalidateAll();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (int index = 0; writing.get(); index++) {
+                first.set("nearCache other", index);
+            }
+        }, executorService);
+        long missBefore = second.getMissCount();
+        for (int index = 0; index < 100000; index++) {
+            second.get("nearCache" + index % 100);
+        }
+        writing.set(false);
+        writer.join();
+        logger.info("其他键写入期间读取 100000 次，未命中 " + (second.getMissCount() - missBefore) + " 次，收到失效通知 "
+                + second.getInvalidationCount() + " 次");
+        for (int index = 0; index < 2000; index++) {
+            redisTemplate.opsForValue().set("nearCache" + index, index);
+            second.get("nearCache" + index);
+        }
+        logger.info("读取 2000 个键，缓存 " + second.size() + " 个，移出 " + second.getEvictionCount() + " 次");
+        // 键空间通知方式只订阅 0 号库中以前缀开头的键，其他客户端直接修改后失效，前缀外的键不缓存
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.setConfig("notify-keyspace-events", "KA");
+            return null;
+        });
+        NearCache keyspace = new NearCache(redisTemplate, listenerContainer, InvalidationMode.KEYSPACE, "huaguoshan_cache__test", 0,
+                "nearCache keyspace:", 1000, Duration.ofMinutes(1));
+        Thread.sleep(100);
+        redisTemplate.opsForValue().set("nearCache keyspace:0", "value");
+        redisTemplate.opsForValue().set("nearCache outside", "value");
+        keyspace.get("nearCache keyspace:0");
+        keyspace.get("nearCache outside");
+        logger.info("键空间通知方式缓存 " + keyspace.size() + " 个");
+        redisTemplate.opsForValue().set("nearCache keyspace:0", "changed");
+        changeStart = System.nanoTime();
+        while (!"changed".equals(keyspace.get("nearCache keyspace:0"))) {
+            Thread.sleep(1);
+        }
+        logger.info("其他客户端修改后 " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - changeStart) + " 微秒读到新值，收到失效通知 "
+                + keyspace.getInvalidationCount() + " 次");
+    }
+
+//    @Test
+    void testScriptCache() {
+        // 对比每次调用新建脚本对象与复用脚本对象的吞吐量，各执行 20000 次
+        // 中途执行 script flush，验证复用的脚本收到 NOSCRIPT 后回退为 eval 并重新缓存
+        String script = "local current = tonumber(redis.call('get', KEYS[1]) or '0'); "
+                + "if (current >= tonumber(ARGV[1])) then "
+                + "    return 0; "
+                + "end; "
+                + "return current + 1;";
+        List<String> keys = Collections.singletonList("script cache");
+        int count = 20000;
+        long start = System.nanoTime();
+        for (int index = 0; index < count; index++) {
+            RedisScript<Long> luaScript = new DefaultRedisScript<>(script, Long.class);
+            redisTemplate.execute(luaScript, keys, 5);
+        }
+        long uncachedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        RedisScript<Long> luaScript = new DefaultRedisScript<>(script, Long.class);
+        start = System.nanoTime();
+        for (int index = 0; index < count; index++) {
+            if (index == count / 2) {
+                redisTemplate.execute((RedisCallback<Void>) connection -> {
+                    connection.scriptingCommands().scriptFlush();
+                    return null;
+                });
+            }
+            redisTemplate.execute(luaScript, keys, 5);
+        }
+        long cachedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        logger.info("每次新建脚本 " + count * 1000 / uncachedMillis + " 次/秒，复用脚本 " + count * 1000 / cachedMillis + " 次/秒");
+    }
+
+//    @Test
+    void testLeaseRateLimiter() {
+        // 限流容量 20000 次/秒，50 个线程各调用 2000 次，分别对比不预取和每次预取 100 个许可
+        // 统计调用吞吐量、通过次数（精确性）和 redis 命令数
+        for (RateLimiterType type : RateLimiterType.values()) {
+            for (int leaseSize : new int[] { 1, 100 }) {
+                RateLimiterConfig config = new RateLimiterConfig();
+                config.setName("lease rateLimiter " + type + leaseSize);
+                config.setLimitForPeriod(20000);
+                config.setLimitRefreshPeriod(Duration.ofSeconds(1));
+                config.setType(type);
+                config.setLeaseSize(leaseSize);
+                testRateLimiterThroughput(hgsReis.getRateLimiter(config), 50, 2000);
+            }
+        }
+    }
+
+    private void testRateLimiterThroughput(RateLimiter rateLimiter, int threads, int calls) {
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        AtomicLong permitted = new AtomicLong();
+        long commandsBefore = getTotalCommandsProcessed();
+        long start = System.nanoTime();
+        for (int index = 0; index < threads; index++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int call = 0; call < calls; call++) {
+                        if (rateLimiter.getPermission()) {
+                            permitted.incrementAndGet();
+                        }
+                    }
+                    countDownLatch.countDown();
+                }
+            });
+        }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        long commands = getTotalCommandsProcessed() - commandsBefore;
+        logger.info(threads + " 个线程调用 " + threads * calls + " 次，耗时 " + elapsedMillis + " 毫秒，"
+                + threads * calls * 1000L / elapsedMillis + " 次/秒，通过 " + permitted.get() + " 次，redis 命令 " + commands + " 次");
+    }
+
+//    @Test
+    void testGcraRateLimiter() {
+        // 限流器配置限流刷新期间为 5s，限流容量为 5，即每秒发放 1 次，突发数量为 2
+        // 连续 3 次限流判断，期望前 2 次通过，第 3 次不通过且等待时间约 1s
+        // 按返回的等待时间 sleep 之后再次判断，期望通过
+        String rateLimiterName = "gcra rateLimiter";
+        RateLimiterConfig config = new RateLimiterConfig();
+        config.setName(rateLimiterName);
+        config.setLimitForPeriod(5);
+        config.setLimitRefreshPeriod(Duration.ofSeconds(5));
+        config.setType(RateLimiterType.GCRA);
+        config.setBurst(2);
+        RateLimiter rateLimiter = hgsReis.getRateLimiter(config);
+        RateLimiterResult result = null;
+        for (int index = 0; index < 3; index++) {
+            result = rateLimiter.getPermissionResult();
+            logger.info(rateLimiterName + index + "限流" + result);
+        }
+        try {
+            Thread.sleep(result.getRetryAfter().toMillis());
+        } catch (InterruptedException ex) {
+            logger.error(ex.getMessage(), ex);
+        }
+        logger.info(rateLimiterName + "等待后限流" + rateLimiter.getPermissionResult());
+    }
+
+//    @Test
+    void testAcquireRateLimiter() {
+        // 固定窗口与滑动窗口限流器均配置 1s 内限流 10 次，20 个线程同时获取许可，最长等待 1.5s
+        // 期望前 10 个立即通过，后 10 个在约 1s 后通过，统计期间 redis 命令数
+        for (RateLimiterType type : new RateLimiterType[] { RateLimiterType.FIXWINDOW, RateLimiterType.SLIDINGWINDOW }) {
+            RateLimiterConfig config = new RateLimiterConfig();
+            config.setName("acquire rateLimiter " + type);
+            config.setLimitForPeriod(10);
+            config.setLimitRefreshPeriod(Duration.ofSeconds(1));
+            config.setType(type);
+            config.setTimeoutDuration(Duration.ofMillis(1500));
+            RateLimiter rateLimiter = hgsReis.getRateLimiter(config);
+            int threads = 20;
+            CountDownLatch countDownLatch = new CountDownLatch(threads);
+            AtomicLong acquired = new AtomicLong();
+            long commandsBefore = getTotalCommandsProcessed();
+            long start = System.nanoTime();
+            for (int index = 0; index < threads; index++) {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (rateLimiter.acquire()) {
+                            acquired.incrementAndGet();
+                        }
+                        countDownLatch.countDown();
+                    }
+                });
+            }
+            try {
+                countDownLatch.await();
+            } catch (InterruptedException ex) {
+                logger.error(ex.getMessage(), ex);
+            }
+            logger.info(type + " " + threads + " 个线程等待获取许可，成功 " + acquired.get() + " 次，耗时 " + (System.nanoTime() - start) / 1000000
+                    + " 毫秒，redis 命令 " + (getTotalCommandsProcessed() - commandsBefore - 1) + " 次");
+        }
+    }
+
+//    @Test
+    void testBatchPermission() {
+        // 用户、租户、全局三级限流器，容量分别为 5、20、10，每次请求获取 2 个许可
+        // 连续 4 次批量判断，期望用户限流器第 3 次开始不通过且剩余 1 次，租户、全局限流器全部通过
+        // 第 2 次批量判断前执行 script flush，验证脚本缓存丢失后回退为 eval
+        List<RateLimiter> rateLimiters = Arrays.asList(
+                hgsReis.getRateLimiter(batchConfig("batch user rateLimiter", RateLimiterType.FIXWINDOW, 5)),
+                hgsReis.getRateLimiter(batchConfig("batch tenant rateLimiter", RateLimiterType.SLIDINGWINDOW, 20)),
+                hgsReis.getRateLimiter(batchConfig("batch global rateLimiter", RateLimiterType.GCRA, 10)));
+        for (int index = 0; index < 4; index++) {
+            if (index == 1) {
+                redisTemplate.execute((RedisCallback<Void>) connection -> {
+                    connection.scriptingCommands().scriptFlush();
+                    return null;
+                });
+            }
+            logger.info("批量限流" + index + RateLimiter.getPermissions(rateLimiters, 2));
+        }
+    }
+
+    private RateLimiterConfig batchConfig(String name, RateLimiterType type, int limitForPeriod) {
+        RateLimiterConfig config = new RateLimiterConfig();
+        config.setName(name);
+        config.setLimitForPeriod(limitForPeriod);
+        config.setLimitRefreshPeriod(Duration.ofSeconds(10));
+        config.setType(type);
+        return config;
+    }
+
+//    @Test
+    void testShardedRateLimiter() throws InterruptedException {
+        // 四种算法各配置 10s 内限流 100 次，分为 4 个分片，20 个线程共请求 400 次
+        // 期望分片键分布在不同的槽，通过次数不超过 100 且接近 100
+        for (RateLimiterType type : RateLimiterType.values()) {
+            RateLimiterConfig config = batchConfig("sharded rateLimiter " + type, type, 100);
+            config.setShards(4);
+            RateLimiter rateLimiter = hgsReis.getRateLimiter(config);
+            int threads = 20;
+            CountDownLatch countDownLatch = new CountDownLatch(threads);
+            AtomicLong permitted = new AtomicLong();
+            for (int index = 0; index < threads; index++) {
+                executorService.execute(() -> {
+                    for (int call = 0; call < 20; call++) {
+                        if (rateLimiter.getPermission()) {
+                            permitted.incrementAndGet();
+                        }
+                    }
+                    countDownLatch.countDown();
+                });
+            }
+            countDownLatch.await();
+            StringBuilder slots = new StringBuilder();
+            for (int shard = 0; shard < config.getShards(); shard++) {
+                slots.append(ClusterKeys.slot(ClusterKeys.shard(config.getName(), shard))).append(' ');
+            }
+            logger.info(type + " 分片槽 " + slots + "请求 400 次，通过 " + permitted.get() + " 次");
+        }
+    }
+
+//    @Test
+    void testCircuitBreaker() throws InterruptedException {
+        // 限流器 1s 内限流 20 次，redis 暂停响应 5s（CLIENT PAUSE），20 个线程持续请求 10s
+        // 期望连续超时后熔断打开，打开期间请求不访问 redis，本地限流每秒通过约 20 次，耗时降到 1 毫秒以内
+        // redis 恢复后探测调用成功，熔断关闭；打开到探测的时间可以用 -Dhuaguoshan.redis.circuit-breaker.open-duration=2s 缩短
+        // 熔断默认关闭，需要 -Dhuaguoshan.redis.circuit-breaker.enabled=true 运行
+        RateLimiterConfig config = batchConfig("circuitBreaker rateLimiter", RateLimiterType.FIXWINDOW, 20);
+        config.setLimitRefreshPeriod(Duration.ofSeconds(1));
+        RateLimiter rateLimiter = hgsReis.getRateLimiter(config);
+        redisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("CLIENT", "PAUSE".getBytes(), "5000".getBytes()));
+        long start = System.nanoTime();
+        AtomicLong[] permitted = new AtomicLong[10];
+        AtomicLong[] requests = new AtomicLong[10];
+        AtomicLong[] maxNanos = new AtomicLong[10];
+        for (int second = 0; second < 10; second++) {
+            permitted[second] = new AtomicLong();
+            requests[second] = new AtomicLong();
+            maxNanos[second] = new AtomicLong();
+        }
+        int threads = 20;
+        CountDownLatch countDownLatch = new CountDownLatch(threads);
+        for (int index = 0; index < threads; index++) {
+            executorService.execute(() -> {
+                long callStart;
+                while ((callStart = System.nanoTime()) - start < TimeUnit.SECONDS.toNanos(10)) {
+                    boolean success = rateLimiter.getPermission();
+                    long end = System.nanoTime();
+                    int second = (int) Math.min(9, TimeUnit.NANOSECONDS.toSeconds(end - start));
+                    requests[second].incrementAndGet();
+                    if (success) {
+                        permitted[second].incrementAndGet();
+                    }
+                    maxNanos[second].accumulateAndGet(end - callStart, Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                countDownLatch.countDown();
+            });
+        }
+        for (int second = 0; second < 10; second++) {
+            Thread.sleep(1000);
+            logger.info("第 " + (second + 1) + " 秒熔断状态 " + meterRegistry.get("huaguoshan.redis.circuitbreaker.state").gauge().value());
+        }
+        countDownLatch.await();
+        for (int second = 0; second < 10; second++) {
+            logger.info("第 " + (second + 1) + " 秒请求 " + requests[second].get() + " 次，通过 " + permitted[second].get() + " 次，最长耗时 "
+                    + maxNanos[second].get() / 1000000 + " 毫秒");
+        }
+        logger.info("熔断期间拒绝访问 redis " + meterRegistry.get("huaguoshan.redis.circuitbreaker.rejected").functionCounter().count() + " 次");
+    }
+
+//    @Test
+    void testAdaptiveLimiter() throws InterruptedException {
+        // 模拟下游：最多同时处理 capacity 个请求，其余排队，每个请求耗时 serviceMillis
+        // 分三个阶段各 3 秒：正常（20 并发，10ms）、变慢（5 并发，40ms）、恢复，60 个客户端线程持续请求
+        // 分别不限流、AIMD（延迟阈值 30ms）、梯度算法，期望限流时各阶段 p99 稳定在服务时间的几倍以内，不限流时随排队放大
+        for (AdaptiveLimiterType type : new AdaptiveLimiterType[] { null, AdaptiveLimiterType.AIMD, AdaptiveLimiterType.GRADIENT }) {
+            AdaptiveLimiter limiter = null;
+            if (type != null) {
+                AdaptiveLimiterConfig config = new AdaptiveLimiterConfig();
+                config.setName("adaptive " + type);
+                config.setType(type);
+                config.setLatencyThreshold(Duration.ofMillis(30));
+                limiter = hgsReis.getAdaptiveLimiter(config);
+            }
+            testAdaptiveLimiter(type == null ? "不限流" : type.name(), limiter);
+        }
+        // 发布到 redis，模拟另一个限制为 10 的实例，期望本实例的限制降为平均值 15；其他实例限制更高时本实例保持不变
+        AdaptiveLimiterConfig config = new AdaptiveLimiterConfig();
+        config.setName("adaptive shared");
+        config.setPublishInterval(Duration.ofSeconds(1));
+        AdaptiveLimiter limiter = hgsReis.getAdaptiveLimiter(config);
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            byte[] other = "other instance".getBytes();
+            connection.hSet(ClusterKeys.derive(AdaptiveLimiter.LIMITS_PREFIX, "adaptive shared").getBytes(), other, "10".getBytes());
+            return connection.zAdd(ClusterKeys.derive(AdaptiveLimiter.ALIVE_PREFIX, "adaptive shared").getBytes(), connection.time() + 3000, other);
+        });
+        limiter.tryAcquire().onSuccess();
+        Thread.sleep(100);
+        logger.info("共享前限制 20，发布后限制 " + limiter.getLimit());
+    }
+
+    private void testAdaptiveLimiter(String name, AdaptiveLimiter limiter) throws InterruptedException {
+        int[] capacities = { 20, 5, 20 };
+        long[] serviceMillis = { 10, 40, 10 };
+        java.util.concurrent.Semaphore downstream = new java.util.concurrent.Semaphore(capacities[0], true);
+        int[] phase = { 0 };
+        List<java.util.Queue<Long>> latencies = Arrays.asList(new java.util.concurrent.ConcurrentLinkedQueue<>(),
+                new java.util.concurrent.ConcurrentLinkedQueue<>(), new java.util.concurrent.ConcurrentLinkedQueue<>());
+        AtomicLong[] rejected = { new AtomicLong(), new AtomicLong(), new AtomicLong() };
+        long deadline = System.currentTimeMillis() + 9000;
+        CountDownLatch countDownLatch = new CountDownLatch(60);
+        for (int thread = 0; thread < 60; thread++) {
+            executorService.execute(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    int current = phase[0];
+                    AdaptiveLimiter.Permit permit = limiter == null ? null : limiter.tryAcquire();
+                    if (limiter != null && permit == null) {
+                        rejected[current].incrementAndGet();
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        downstream.acquire();
+                        try {
+                            Thread.sleep(serviceMillis[current]);
+                        } finally {
+                            downstream.release();
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } finally {
+                        if (permit != null) {
+                            permit.onSuccess();
+                        }
+                    }
+                    latencies.get(current).add((System.nanoTime() - start) / 1000000);
+                }
+                countDownLatch.countDown();
+            });
+        }
+        for (int second = 0; second < 9; second++) {
+            Thread.sleep(1000);
+            if (second == 2 || second == 5) {
+                // 切换阶段，调整下游并发能力
+                int next = phase[0] + 1;
+                int delta = capacities[next] - capacities[phase[0]];
+                if (delta > 0) {
+                    downstream.release(delta);
+                } else {
+                    downstream.acquireUninterruptibly(-delta);
+                }
+                phase[0] = next;
+            }
+            logger.info(name + " 第 " + (second + 1) + " 秒，并发限制 " + (limiter == null ? "-" : limiter.getLimit()));
+        }
+        countDownLatch.await();
+        for (int index = 0; index < 3; index++) {
+            List<Long> sorted = new java.util.ArrayList<>(latencies.get(index));
+            Collections.sort(sorted);
+            long p99 = sorted.isEmpty() ? 0 : sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * 0.99)));
+            logger.info(name + " 阶段" + (index + 1) + "（" + capacities[index] + " 并发，" + serviceMillis[index] + "ms）完成 " + sorted.size()
+                    + " 次，拒绝 " + rejected[index].get() + " 次，p99 " + p99 + "ms");
+        }
+    }
+
+//    @Test
+    void testClusterKeys() {
+        // 连接 redis 集群（-Dspring.redis.cluster.nodes=...）时验证多键脚本不出现 CROSSSLOT 错误
+        // 公平锁、读写锁的派生键与锁名称在同一个槽；批量限流的限流器分布在不同的槽，按槽分组执行
+        FairLock fairLock = hgsReis.getFairLock("cluster fairLock");
+        fairLock.lock();
+        fairLock.unlock();
+        ReentrantReadWriteLock readWriteLock = hgsReis.getReadWriteLock("cluster readWriteLock");
+        readWriteLock.writeLock().lock();
+        readWriteLock.readLock().lock();
+        readWriteLock.readLock().unlock();
+        readWriteLock.writeLock().unlock();
+        logger.info("cluster fairLock 槽 " + ClusterKeys.slot("cluster fairLock") + "，等待队列槽 "
+                + ClusterKeys.slot(ClusterKeys.derive(FairLock.QUEUE_PREFIX, "cluster fairLock")));
+        // 使用相同 hash tag 的两把锁，派生键不同但在同一个槽，各自的等待队列、释放频道互不干扰
+        String first = ClusterKeys.derive(FairLock.QUEUE_PREFIX, "{order:1}:a");
+        String second = ClusterKeys.derive(FairLock.QUEUE_PREFIX, "{order:1}:b");
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals(ClusterKeys.slot("{order:1}:a"), ClusterKeys.slot(first));
+        Assertions.assertEquals(ClusterKeys.slot(first), ClusterKeys.slot(second));
+        logger.info("派生键 " + first + "、" + second + " 槽 " + ClusterKeys.slot(first));
+        List<RateLimiter> rateLimiters = Arrays.asList(
+                hgsReis.getRateLimiter(batchConfig("cluster user rateLimiter", RateLimiterType.FIXWINDOW, 5)),
+                hgsReis.getRateLimiter(batchConfig("cluster tenant rateLimiter", RateLimiterType.SLIDINGWINDOW, 20)),
+                hgsReis.getRateLimiter(batchConfig("cluster global rateLimiter", RateLimiterType.GCRA, 10)));
+        for (int index = 0; index < 3; index++) {
+            logger.info("跨槽批量限流" + index + RateLimiter.getPermissions(rateLimiters, 2));
+        }
+    }
+
+//    @Test
+    void testSlidingWindowCounterAccuracy() {
+        // 限流刷新期间为 2s，限流容量为 100，同一请求序列同时交给滑动窗口和滑动窗口计数器判断
+        // 每 5ms 一次请求，持续 6s，统计两者通过次数、判断结果一致的比例
+        // 之后限流容量改为 100000，各通过 20000 次，对比两者 redis 内存占用
+        RateLimiter exact = hgsReis.getRateLimiter(slidingWindowConfig("accuracy slidingWindow", RateLimiterType.SLIDINGWINDOW, 100));
+        RateLimiter counter = hgsReis.getRateLimiter(slidingWindowConfig("accuracy slidingWindowCounter", RateLimiterType.SLIDINGWINDOWCOUNTER, 100));
+        int total = 1200;
+        int exactPermitted = 0;
+        int counterPermitted = 0;
+        int agreed = 0;
+        for (int index = 0; index < total; index++) {
+            boolean exactPermission = exact.getPermission();
+            boolean counterPermission = counter.getPermission();
+            exactPermitted += exactPermission ? 1 : 0;
+            counterPermitted += counterPermission ? 1 : 0;
+            agreed += exactPermission == counterPermission ? 1 : 0;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ex) {
+                logger.error(ex.getMessage(), ex);
+            }
+        }
+        logger.info("滑动窗口通过 " + exactPermitted + " 次，滑动窗口计数器通过 " + counterPermitted + " 次，判断一致 " + agreed * 100 / total + "%");
+
+        exact = hgsReis.getRateLimiter(slidingWindowConfig("memory slidingWindow", RateLimiterType.SLIDINGWINDOW, 100000));
+        counter = hgsReis.getRateLimiter(slidingWindowConfig("memory slidingWindowCounter", RateLimiterType.SLIDINGWINDOWCOUNTER, 100000));
+        for (int index = 0; index < 20000; index++) {
+            exact.getPermission();
+            counter.getPermission();
+        }
+        logger.info("滑动窗口内存占用 " + getMemoryUsage("memory slidingWindow") + " 字节，滑动窗口计数器内存占用 " + getMemoryUsage("memory slidingWindowCounter") + " 字节");
+    }
+
+    private RateLimiterConfig slidingWindowConfig(String name, RateLimiterType type, int limitForPeriod) {
+        RateLimiterConfig config = new RateLimiterConfig();
+        config.setName(name);
+        config.setLimitForPeriod(limitForPeriod);
+        config.setLimitRefreshPeriod(Duration.ofSeconds(2));
+        config.setType(type);
+        return config;
+    }
+
+    private Long getMemoryUsage(String key) {
+        return redisTemplate.execute((RedisCallback<Long>) connection -> (Long) connection.execute("MEMORY", "USAGE".getBytes(), key.getBytes()));
+    }
+
 //    @Test
     void testFixWindowRateLimiter() {
         // 限流器配置限流刷新期间为 5s，限流容量为 5